@@ -0,0 +1,163 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// a limit of the keys being executed by the underlying executor at once, adapted to the latency of their tasks
+public final class AdaptiveConcurrencyLimit {
+
+    private static final double SMOOTHING = 0.2;
+    private static final int BASELINE_WINDOW = 100;
+    private static final double TOLERANCE = 1.5;
+
+    private final class Measured implements Runnable {
+
+        private final Runnable command;
+        private final long dispatched = System.nanoTime();
+
+        Measured(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            try {
+                command.run();
+            } finally {
+                release(System.nanoTime() - dispatched);
+            }
+        }
+    }
+
+    private final int minLimit;
+    private final int maxLimit;
+    // guarded by this
+    private final ArrayDeque<Runnable> parked = new ArrayDeque<>();
+    private Executor underlyingExecutor;
+    private double limit;
+    private int inFlight = 0;
+    private long latency = 0;
+    private double baselineLatency = 0;
+
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("0 < minLimit <= initialLimit <= maxLimit required");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    // the keys ready to run, but over the limit
+    public synchronized int parked() {
+        return parked.size();
+    }
+
+    // of the last task, from its dispatch to the underlying executor to its completion
+    public synchronized long latency(TimeUnit unit) {
+        return unit.convert(latency, TimeUnit.NANOSECONDS);
+    }
+
+    // the moving average of the latency the last one is compared to
+    public synchronized long baselineLatency(TimeUnit unit) {
+        return unit.convert((long) baselineLatency, TimeUnit.NANOSECONDS);
+    }
+
+    synchronized Executor limiting(Executor underlyingExecutor) {
+        if (this.underlyingExecutor != null) {
+            throw new IllegalStateException("limit already in use");
+        }
+        this.underlyingExecutor = underlyingExecutor;
+        return this::execute;
+    }
+
+    // a gradient of the baseline and the last latency, the limit shrinks when the latency grows and vice versa
+    synchronized void sample(long latency, int inFlight) {
+        this.latency = latency;
+        if (baselineLatency == 0) {
+            baselineLatency = latency;
+        } else {
+            baselineLatency += (latency - baselineLatency) / BASELINE_WINDOW;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * baselineLatency / Math.max(latency, 1)));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        if (newLimit > limit && inFlight < limit / 2) {
+            return; // not enough tasks to know whether a higher limit would help
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    }
+
+    private void execute(Runnable command) {
+        synchronized (this) {
+            if (inFlight >= (int) limit) {
+                parked.offer(command);
+                return;
+            }
+            ++inFlight;
+        }
+        try {
+            underlyingExecutor.execute(new Measured(command));
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                --inFlight;
+            }
+            throw e;
+        }
+    }
+
+    private void release(long latency) {
+        List<Runnable> next = new ArrayList<>(1);
+        synchronized (this) {
+            sample(latency, inFlight);
+            --inFlight;
+            while (inFlight < (int) limit && !parked.isEmpty()) {
+                next.add(parked.poll());
+                ++inFlight;
+            }
+        }
+        for (Runnable command : next) {
+            Measured measured = new Measured(command);
+            try {
+                underlyingExecutor.execute(measured);
+            } catch (RejectedExecutionException e) {
+                // complete the command on this thread when the execution is rejected
+                measured.run();
+            }
+        }
+    }
+}
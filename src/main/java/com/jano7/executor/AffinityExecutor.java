@@ -0,0 +1,280 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+// a pool keeping the tasks on the worker which submits them or on the worker preferred by the submitter
+public final class AffinityExecutor implements Executor {
+
+    private final class Worker extends Thread {
+
+        private final int index;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private volatile int size = 0;
+        private volatile boolean parked = false;
+        private volatile boolean busy = false;
+        private volatile long busySince;
+
+        Worker(int index) {
+            super("affinity-worker-" + index);
+            this.index = index;
+        }
+
+        void push(Runnable task, boolean local) {
+            int backlog;
+            synchronized (this) {
+                if (terminated) {
+                    throw new RejectedExecutionException("executor terminated");
+                }
+                tasks.offer(task);
+                backlog = size = tasks.size();
+            }
+            if (parked) {
+                LockSupport.unpark(this);
+            }
+            // a continuation pushed onto its own worker is likely to run next, unless the worker has a backlog
+            if ((!local || backlog > 1) && isStealable(System.nanoTime())) {
+                // the worker is behind, an idle one may steal from it
+                wakeIdle(this);
+            }
+        }
+
+        synchronized Runnable poll() {
+            Runnable task = tasks.poll();
+            size = tasks.size();
+            return task;
+        }
+
+        // a single task is left to its worker for a while, the worker is likely to finish soon and run it
+        boolean isStealable(long now) {
+            int backlog = size;
+            return backlog > 1 || (backlog == 1 && busy && now - busySince >= STEAL_DELAY);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task = poll();
+                if (task == null) {
+                    task = steal(this);
+                }
+                if (task != null) {
+                    busySince = System.nanoTime();
+                    busy = true;
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        AsyncExceptionLogger.log(t);
+                    }
+                    busy = false;
+                    continue;
+                }
+                if (shutdown && tryTerminate()) {
+                    return;
+                }
+                parked = true;
+                if (size == 0 && !shutdown) {
+                    // a peer with a backlog is checked again soon, in case the wake up has been missed
+                    if (hasBacklog(this)) {
+                        LockSupport.parkNanos(this, STEAL_DELAY);
+                    } else {
+                        LockSupport.park(this);
+                    }
+                }
+                parked = false;
+            }
+        }
+    }
+
+    private static final long STEAL_DELAY = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final Worker[] workers;
+    private final int overloadThreshold;
+    private final AtomicInteger nextWorker = new AtomicInteger(0);
+    private volatile boolean shutdown = false;
+    private volatile boolean terminated = false;
+
+    public AffinityExecutor(int workers) {
+        this(workers, 256);
+    }
+
+    public AffinityExecutor(int workers, int overloadThreshold) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive");
+        }
+        if (overloadThreshold < 1) {
+            throw new IllegalArgumentException("overloadThreshold must be positive");
+        }
+        this.workers = new Worker[workers];
+        this.overloadThreshold = overloadThreshold;
+        for (int i = 0; i < workers; ++i) {
+            this.workers[i] = new Worker(i);
+        }
+        for (Worker worker : this.workers) {
+            worker.start();
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        execute(command, -1);
+    }
+
+    // a task submitted by a worker stays on it, the others go to the worker preferred by the affinity if not negative
+    void execute(Runnable command, int affinity) {
+        checkNotNull(command);
+        if (shutdown) {
+            throw new RejectedExecutionException("executor shut down");
+        }
+        Worker current = currentWorker();
+        Worker target = current;
+        if (target == null) {
+            int preferred = affinity < 0 ? nextWorker.getAndIncrement() : affinity;
+            target = workers[(preferred & 0x7fffffff) % workers.length];
+        }
+        if (target.size >= overloadThreshold) {
+            target = leastLoaded();
+        }
+        target.push(command, target == current);
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Worker worker : workers) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                TimeUnit.NANOSECONDS.timedJoin(worker, remaining);
+            }
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Worker currentWorker() {
+        Thread current = Thread.currentThread();
+        if (current instanceof AffinityExecutor.Worker) {
+            Worker worker = (Worker) current;
+            if (worker.index < workers.length && workers[worker.index] == worker) {
+                return worker;
+            }
+        }
+        return null;
+    }
+
+    private Worker leastLoaded() {
+        Worker least = workers[0];
+        for (Worker worker : workers) {
+            if (worker.size < least.size) {
+                least = worker;
+            }
+        }
+        return least;
+    }
+
+    private Runnable steal(Worker thief) {
+        long now = System.nanoTime();
+        for (int i = 1; i < workers.length; ++i) {
+            Worker victim = workers[(thief.index + i) % workers.length];
+            if (victim.isStealable(now)) {
+                Runnable task = victim.poll();
+                if (task != null) {
+                    if (victim.isStealable(now)) {
+                        // the victim is still behind, another idle worker may help too
+                        wakeIdle(victim);
+                    }
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean hasBacklog(Worker thief) {
+        for (Worker worker : workers) {
+            if (worker != thief && worker.size > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void wakeIdle(Worker behind) {
+        for (Worker worker : workers) {
+            if (worker != behind && worker.parked) {
+                LockSupport.unpark(worker);
+                return;
+            }
+        }
+    }
+
+    private boolean tryTerminate() {
+        if (terminated) {
+            return true;
+        }
+        if (!lockAllAndTerminate(0)) {
+            return false;
+        }
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker);
+        }
+        return true;
+    }
+
+    // the queues are locked in the index order, so that no task can be pushed while they are checked
+    private boolean lockAllAndTerminate(int from) {
+        if (from == workers.length) {
+            for (Worker worker : workers) {
+                if (worker.size > 0) {
+                    return false;
+                }
+            }
+            terminated = true;
+            return true;
+        }
+        synchronized (workers[from]) {
+            return lockAllAndTerminate(from + 1);
+        }
+    }
+}
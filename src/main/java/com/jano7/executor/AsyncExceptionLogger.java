@@ -0,0 +1,105 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// prints task exceptions on a background thread; at most a few stack traces per second are printed in full and the
+// remaining ones are aggregated into a count per exception type
+final class AsyncExceptionLogger {
+
+    private static final class Holder {
+
+        static final AsyncExceptionLogger INSTANCE = new AsyncExceptionLogger(10, 1024);
+    }
+
+    private final int maxTracesPerSecond;
+    private final ArrayBlockingQueue<Throwable> queue;
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final Map<String, Long> suppressed = new LinkedHashMap<>();
+
+    private AsyncExceptionLogger(int maxTracesPerSecond, int capacity) {
+        this.maxTracesPerSecond = maxTracesPerSecond;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        Thread thread = new Thread(this::work, "task-exception-logger");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static void log(Throwable exception) {
+        Holder.INSTANCE.enqueue(exception);
+    }
+
+    private void enqueue(Throwable exception) {
+        if (!queue.offer(exception)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void work() {
+        long windowEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        int printed = 0;
+        while (true) {
+            Throwable exception = null;
+            try {
+                exception = queue.poll(Math.max(0, windowEnd - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            if (exception != null) {
+                if (printed < maxTracesPerSecond) {
+                    exception.printStackTrace();
+                    ++printed;
+                } else {
+                    suppressed.merge(signature(exception), 1L, Long::sum);
+                }
+            }
+            if (System.nanoTime() - windowEnd >= 0) {
+                printSummary();
+                windowEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+                printed = 0;
+            }
+        }
+    }
+
+    private void printSummary() {
+        for (Map.Entry<String, Long> entry : suppressed.entrySet()) {
+            System.err.println(entry.getValue() + " similar exception(s) suppressed: " + entry.getKey());
+        }
+        suppressed.clear();
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            System.err.println(lost + " task exception(s) not logged as the logging queue was full");
+        }
+    }
+
+    private static String signature(Throwable exception) {
+        Throwable cause = exception.getCause() == null ? exception : exception.getCause();
+        StackTraceElement[] trace = cause.getStackTrace();
+        return cause.getClass().getName() + (trace.length > 0 ? " at " + trace[0] : "");
+    }
+}
@@ -23,6 +23,9 @@ SOFTWARE.
 */
 package com.jano7.executor;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
@@ -33,6 +36,45 @@ import static com.jano7.executor.Util.checkNotNull;
 
 public final class BoundedExecutor implements DrainableExecutor {
 
+    private final class BoundedTask implements Runnable {
+
+        private final Runnable task;
+
+        BoundedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            return Objects.equals(task, ((BoundedTask) o).task);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(task);
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toString(task);
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                semaphore.release();
+            }
+        }
+    }
+
     private final int maxTasks;
 
     private final Semaphore semaphore;
@@ -51,7 +93,10 @@ public final class BoundedExecutor implements DrainableExecutor {
     }
 
     private void blockOnTasksExceeded() {
-        semaphore.acquireUninterruptibly();
+        if (!semaphore.tryAcquire()) {
+            // a ForkJoinPool worker must not block without the pool knowing, the pool could starve
+            ManagedBlocking.acquireUninterruptibly(semaphore);
+        }
     }
 
     private void rejectOnTasksExceeded() {
@@ -71,16 +116,7 @@ public final class BoundedExecutor implements DrainableExecutor {
             }
         }
         try {
-            underlyingExecutor.execute(new KeyRunnable<>(
-                    task,
-                    () -> {
-                        try {
-                            task.run();
-                        } finally {
-                            semaphore.release();
-                        }
-                    })
-            );
+            underlyingExecutor.execute(new BoundedTask(task));
         } catch (RejectedExecutionException e) {
             semaphore.release();
             throw e;
@@ -94,4 +130,21 @@ public final class BoundedExecutor implements DrainableExecutor {
         }
         return drained;
     }
+
+    Runnable bounded(Runnable task) {
+        return new BoundedTask(task);
+    }
+
+    Runnable unbounded(Runnable boundedTask) {
+        return ((BoundedTask) boundedTask).task;
+    }
+
+    List<Runnable> release(List<Runnable> cancelledTasks) {
+        List<Runnable> released = new ArrayList<>(cancelledTasks.size());
+        for (Runnable cancelled : cancelledTasks) {
+            released.add(unbounded(cancelled));
+            semaphore.release();
+        }
+        return released;
+    }
 }
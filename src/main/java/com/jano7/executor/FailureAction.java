@@ -0,0 +1,74 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.concurrent.TimeUnit;
+
+public final class FailureAction {
+
+    enum Type {
+        SKIP, HANDLED, RETRY, PAUSE
+    }
+
+    private static final FailureAction SKIP = new FailureAction(Type.SKIP, 0);
+    private static final FailureAction HANDLED = new FailureAction(Type.HANDLED, 0);
+    private static final FailureAction PAUSE = new FailureAction(Type.PAUSE, 0);
+
+    private final Type type;
+    private final long delayNanos;
+
+    private FailureAction(Type type, long delayNanos) {
+        this.type = type;
+        this.delayNanos = delayNanos;
+    }
+
+    public static FailureAction skip() {
+        return SKIP;
+    }
+
+    public static FailureAction handled() {
+        return HANDLED;
+    }
+
+    public static FailureAction retry(long delay, TimeUnit unit) {
+        return new FailureAction(Type.RETRY, Math.max(0, unit.toNanos(delay)));
+    }
+
+    public static FailureAction pause() {
+        return PAUSE;
+    }
+
+    Type type() {
+        return type;
+    }
+
+    long delayNanos() {
+        return delayNanos;
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.RETRY ? "RETRY after " + delayNanos + "ns" : type.toString();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+public interface FailurePolicy<Key> {
+
+    FailureAction onFailure(Key key, Runnable task, Throwable cause, int attempt);
+
+    static <Key> FailurePolicy<Key> skip() {
+        return (key, task, cause, attempt) -> FailureAction.skip();
+    }
+
+    static <Key> FailurePolicy<Key> pause() {
+        return (key, task, cause, attempt) -> FailureAction.pause();
+    }
+
+    static <Key> FailurePolicy<Key> deadLetter(DeadLetterSink<Key> sink) {
+        checkNotNull(sink, "sink");
+        return (key, task, cause, attempt) -> {
+            sink.accept(key, task, cause);
+            return FailureAction.handled();
+        };
+    }
+
+    static <Key> FailurePolicy<Key> retry(int maxRetries,
+                                          long initialBackoff,
+                                          long maxBackoff,
+                                          TimeUnit unit,
+                                          FailurePolicy<Key> whenExhausted) {
+        checkNotNull(unit, "unit");
+        checkNotNull(whenExhausted, "whenExhausted");
+        if (maxRetries < 0 || initialBackoff < 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("invalid retry settings");
+        }
+        return (key, task, cause, attempt) -> {
+            if (attempt > maxRetries) {
+                return whenExhausted.onFailure(key, task, cause, attempt);
+            }
+            long backoff = initialBackoff << Math.min(attempt - 1, 62);
+            if (backoff < initialBackoff || backoff > maxBackoff) {
+                backoff = maxBackoff;
+            }
+            return FailureAction.retry(backoff, unit);
+        };
+    }
+}
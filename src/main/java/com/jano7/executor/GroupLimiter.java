@@ -0,0 +1,90 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+class GroupLimiter {
+
+    private static final class Group {
+
+        private int running = 0;
+        private final ArrayDeque<Runnable> ready = new ArrayDeque<>();
+    }
+
+    private final int maxConcurrency;
+    private final Executor underlyingExecutor;
+    private final HashMap<Object, Group> groups = new HashMap<>();
+
+    GroupLimiter(int maxConcurrency, Executor underlyingExecutor) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.underlyingExecutor = underlyingExecutor;
+    }
+
+    void execute(Object groupKey, Runnable command) {
+        synchronized (groups) {
+            Group group = groups.get(groupKey);
+            if (group == null) {
+                group = new Group();
+                groups.put(groupKey, group);
+            }
+            if (group.running == maxConcurrency) {
+                group.ready.offer(command);
+                return;
+            }
+            ++group.running;
+        }
+        try {
+            underlyingExecutor.execute(command);
+        } catch (RejectedExecutionException e) {
+            release(groupKey);
+            throw e;
+        }
+    }
+
+    void release(Object groupKey) {
+        Runnable next;
+        synchronized (groups) {
+            Group group = groups.get(groupKey);
+            next = group.ready.poll();
+            if (next == null && --group.running == 0) {
+                groups.remove(groupKey);
+            }
+        }
+        if (next != null) {
+            try {
+                underlyingExecutor.execute(next);
+            } catch (RejectedExecutionException e) {
+                // complete the command on this thread when the execution is rejected
+                next.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+
+// a consistent-hash ring, each node is placed at a number of points so that the keys are spread evenly
+final class HashRing {
+
+    private final long epoch;
+    private final Set<String> nodes;
+    private final int[] points;
+    private final String[] owners;
+
+    HashRing(long epoch, Collection<String> nodes, int pointsPerNode) {
+        this.epoch = epoch;
+        this.nodes = Collections.unmodifiableSet(new LinkedHashSet<>(nodes));
+        String[] indexed = this.nodes.toArray(new String[0]);
+        long[] placed = new long[indexed.length * pointsPerNode];
+        for (int n = 0; n < indexed.length; ++n) {
+            for (int i = 0; i < pointsPerNode; ++i) {
+                long point = mix((indexed[n] + '#' + i).hashCode());
+                placed[n * pointsPerNode + i] = point << 32 | n;
+            }
+        }
+        Arrays.sort(placed);
+        this.points = new int[placed.length];
+        this.owners = new String[placed.length];
+        for (int i = 0; i < placed.length; ++i) {
+            points[i] = (int) (placed[i] >> 32);
+            owners[i] = indexed[(int) placed[i]];
+        }
+    }
+
+    long epoch() {
+        return epoch;
+    }
+
+    Set<String> nodes() {
+        return nodes;
+    }
+
+    // returns null if there are no nodes
+    String owner(Object key) {
+        if (points.length == 0) {
+            return null;
+        }
+        int i = Arrays.binarySearch(points, mix(Objects.hashCode(key)));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    // the finalizer of MurmurHash3, the hash codes of similar keys differ in a few bits only
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+// remembers the idempotency IDs of the pending tasks and of a bounded number of the recently completed ones per key
+class KeyDeduplicator<Key> {
+
+    static final class Window {
+
+        private final HashSet<Object> pending = new HashSet<>();
+        private final HashSet<Object> recent = new HashSet<>();
+        private final Object[] completed; // a ring of the recently completed IDs, the oldest one is evicted first
+        private int next = 0;
+        private long retirements = 0; // guarded by the idleKeys lock, only the latest retention timer drops the window
+
+        Window(int size) {
+            this.completed = new Object[size];
+        }
+
+        synchronized boolean admit(Object id) {
+            if (pending.contains(id) || recent.contains(id)) {
+                return false;
+            }
+            pending.add(id);
+            return true;
+        }
+
+        synchronized void completed(Object id) {
+            if (pending.remove(id)) {
+                Object evicted = completed[next];
+                if (evicted != null) {
+                    recent.remove(evicted);
+                }
+                completed[next] = id;
+                recent.add(id);
+                next = (next + 1) % completed.length;
+            }
+        }
+
+        synchronized void forget(Object id) {
+            pending.remove(id);
+        }
+
+        synchronized boolean retire() {
+            // a task still pending at retirement has been rejected, its retransmission must not be suppressed
+            pending.clear();
+            return !recent.isEmpty();
+        }
+    }
+
+    private final int window;
+    private final long retention;
+    private final TimerWheel timer;
+    private final HashMap<Key, Window> idleKeys = new HashMap<>();
+
+    KeyDeduplicator(int window, long retention, TimeUnit unit, TimerWheel timer) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        if (retention < 0) {
+            throw new IllegalArgumentException("retention must not be negative");
+        }
+        this.window = window;
+        this.retention = unit.toNanos(retention);
+        this.timer = timer;
+    }
+
+    Window activate(Key key) {
+        synchronized (idleKeys) {
+            Window idle = idleKeys.remove(key);
+            return idle == null ? new Window(window) : idle;
+        }
+    }
+
+    void retire(Key key, Window idle) {
+        if (idle.retire() && retention > 0) {
+            // the recently completed IDs outlive the key for a while, retransmissions often arrive once it is idle
+            long retirement;
+            synchronized (idleKeys) {
+                idleKeys.put(key, idle);
+                retirement = ++idle.retirements;
+            }
+            timer.schedule(() -> {
+                synchronized (idleKeys) {
+                    // the key may have been reactivated and retired again since
+                    if (idle.retirements == retirement) {
+                        idleKeys.remove(key, idle);
+                    }
+                }
+            }, retention, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+// a token bucket kept as the theoretical arrival time of the next task (GCRA), a single long per active key
+class KeyRateLimiter<Key> {
+
+    private final long interval;
+    private final long tolerance;
+    private final TimerWheel timer;
+    private final HashMap<Key, Long> idleKeys = new HashMap<>();
+
+    KeyRateLimiter(int permits, long period, TimeUnit unit, TimerWheel timer) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be positive");
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        this.interval = Math.max(1, unit.toNanos(period) / permits);
+        this.tolerance = interval * (permits - 1);
+        this.timer = timer;
+    }
+
+    TimerWheel timer() {
+        return timer;
+    }
+
+    long activate(Key key) {
+        synchronized (idleKeys) {
+            Long arrival = idleKeys.remove(key);
+            return arrival == null ? System.nanoTime() : arrival;
+        }
+    }
+
+    long delay(long arrival) {
+        return arrival - tolerance - System.nanoTime();
+    }
+
+    long acquire(long arrival) {
+        return Math.max(arrival, System.nanoTime()) + interval;
+    }
+
+    void retire(Key key, long arrival) {
+        long refill = arrival - System.nanoTime();
+        if (refill > 0) {
+            // the bucket is kept until it refills, so that a key cannot exceed the rate by going idle
+            synchronized (idleKeys) {
+                idleKeys.put(key, arrival);
+            }
+            timer.schedule(() -> {
+                synchronized (idleKeys) {
+                    idleKeys.remove(key, arrival);
+                }
+            }, refill, TimeUnit.NANOSECONDS);
+        }
+    }
+}
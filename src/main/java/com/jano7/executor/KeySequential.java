@@ -0,0 +1,253 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+// bulk processing of the items in parallel, the items of a key are processed sequentially in their encounter order
+public final class KeySequential {
+
+    private static final int BATCH_SIZE = 8192;
+
+    // the items of a part of the input, sorted by their key partitions
+    private static final class Batch {
+
+        private final Object[] items;
+        private final int[] offsets; // the items of the partition p are from offsets[p] to offsets[p + 1]
+
+        Batch(Object[] items, int[] offsets) {
+            this.items = items;
+            this.offsets = offsets;
+        }
+    }
+
+    private static final class Processing<T, Key> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Spliterator<T> input;
+        private final Function<? super T, ? extends Key> keyFunction;
+        private final Consumer<? super T> action;
+        private final int partitions;
+        private final int batchesPerWindow;
+        private final ArrayDeque<Spliterator<T>> remainders = new ArrayDeque<>();
+
+        Processing(Spliterator<T> input,
+                   Function<? super T, ? extends Key> keyFunction,
+                   Consumer<? super T> action,
+                   int parallelism) {
+            this.input = input;
+            this.keyFunction = keyFunction;
+            this.action = action;
+            this.partitions = parallelism * 4;
+            this.batchesPerWindow = parallelism * 2;
+        }
+
+        @Override
+        protected void compute() {
+            remainders.push(input);
+            // the next window is sorted while the current one is processed, the windows are processed one by one
+            List<Batch> current = sort(nextWindow());
+            while (!current.isEmpty()) {
+                List<Spliterator<T>> nextWindow = nextWindow();
+                List<Batch> next = new ArrayList<>(nextWindow.size());
+                ForkJoinTask<?> sorting = nextWindow.isEmpty() ? null : ForkJoinTask.adapt(
+                        () -> next.addAll(sort(nextWindow))
+                ).fork();
+                try {
+                    process(current);
+                } finally {
+                    if (sorting != null) {
+                        sorting.quietlyJoin();
+                    }
+                }
+                if (sorting != null) {
+                    sorting.join(); // rethrows the exception of the key function
+                }
+                current = next;
+            }
+        }
+
+        // splits the input into parts of about BATCH_SIZE items in the encounter order
+        private List<Spliterator<T>> nextWindow() {
+            List<Spliterator<T>> window = new ArrayList<>(batchesPerWindow);
+            while (window.size() < batchesPerWindow && !remainders.isEmpty()) {
+                Spliterator<T> part = remainders.pop();
+                Spliterator<T> prefix;
+                while (part.estimateSize() > BATCH_SIZE && (prefix = part.trySplit()) != null) {
+                    remainders.push(part);
+                    part = prefix;
+                }
+                if (part.estimateSize() > BATCH_SIZE) {
+                    // not splittable, its items are read here in batches
+                    Object[] items = new Object[BATCH_SIZE];
+                    int[] size = {0};
+                    while (size[0] < BATCH_SIZE && part.tryAdvance(item -> items[size[0]++] = item)) {
+                    }
+                    if (size[0] == BATCH_SIZE) {
+                        remainders.push(part);
+                    }
+                    window.add(arraySpliterator(items, size[0]));
+                } else {
+                    window.add(part);
+                }
+            }
+            return window;
+        }
+
+        private List<Batch> sort(List<Spliterator<T>> window) {
+            List<Batch> batches = new ArrayList<>(window.size());
+            List<ForkJoinTask<Batch>> tasks = new ArrayList<>(window.size());
+            for (Spliterator<T> part : window) {
+                tasks.add(ForkJoinTask.adapt(() -> sort(part)));
+            }
+            for (ForkJoinTask<Batch> task : ForkJoinTask.invokeAll(tasks)) {
+                batches.add(task.join());
+            }
+            return batches;
+        }
+
+        // a stable counting sort, so that the items of a key stay in their encounter order
+        private Batch sort(Spliterator<T> part) {
+            Collector collector = new Collector((int) Math.min(Math.max(part.estimateSize(), 16), BATCH_SIZE));
+            part.forEachRemaining(collector);
+            int[] offsets = new int[partitions + 1];
+            for (int i = 0; i < collector.size; ++i) {
+                ++offsets[collector.partitions[i] + 1];
+            }
+            for (int p = 0; p < partitions; ++p) {
+                offsets[p + 1] += offsets[p];
+            }
+            int[] positions = Arrays.copyOf(offsets, partitions);
+            Object[] sorted = new Object[collector.size];
+            for (int i = 0; i < collector.size; ++i) {
+                sorted[positions[collector.partitions[i]]++] = collector.items[i];
+            }
+            return new Batch(sorted, offsets);
+        }
+
+        private final class Collector implements Consumer<T> {
+
+            private Object[] items;
+            private int[] partitions;
+            private int size = 0;
+
+            Collector(int capacity) {
+                this.items = new Object[capacity];
+                this.partitions = new int[capacity];
+            }
+
+            @Override
+            public void accept(T item) {
+                if (size == items.length) {
+                    // the size was estimated too low
+                    items = Arrays.copyOf(items, size * 2);
+                    partitions = Arrays.copyOf(partitions, size * 2);
+                }
+                items[size] = item;
+                partitions[size++] = partition(keyFunction.apply(item));
+            }
+        }
+
+        private void process(List<Batch> window) {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(partitions);
+            for (int p = 0; p < partitions; ++p) {
+                int partition = p;
+                tasks.add(ForkJoinTask.adapt(() -> process(window, partition)));
+            }
+            ForkJoinTask.invokeAll(tasks);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void process(List<Batch> window, int partition) {
+            for (Batch batch : window) {
+                for (int i = batch.offsets[partition]; i < batch.offsets[partition + 1]; ++i) {
+                    action.accept((T) batch.items[i]);
+                }
+            }
+        }
+
+        private int partition(Key key) {
+            int h = Objects.hashCode(key);
+            return ((h ^ (h >>> 16)) & 0x7fffffff) % partitions;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Spliterator<T> arraySpliterator(Object[] items, int size) {
+            return (Spliterator<T>) Spliterators.spliterator(items, 0, size, Spliterator.ORDERED);
+        }
+    }
+
+    private KeySequential() {
+    }
+
+    public static <T, Key> void forEach(Stream<T> stream,
+                                        Function<? super T, ? extends Key> keyFunction,
+                                        Consumer<? super T> action,
+                                        int parallelism) {
+        checkNotNull(stream, "stream");
+        forEach(stream.spliterator(), keyFunction, action, parallelism);
+    }
+
+    public static <T, Key> void forEach(Spliterator<T> spliterator,
+                                        Function<? super T, ? extends Key> keyFunction,
+                                        Consumer<? super T> action,
+                                        int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            forEach(spliterator, keyFunction, action, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // returns when all the items have been processed, an exception thrown by the action stops the processing
+    public static <T, Key> void forEach(Spliterator<T> spliterator,
+                                        Function<? super T, ? extends Key> keyFunction,
+                                        Consumer<? super T> action,
+                                        ForkJoinPool pool) {
+        checkNotNull(spliterator, "spliterator");
+        checkNotNull(keyFunction, "keyFunction");
+        checkNotNull(action, "action");
+        checkNotNull(pool, "pool");
+        pool.invoke(new Processing<>(spliterator, keyFunction, action, pool.getParallelism()));
+    }
+}
@@ -23,15 +23,22 @@ SOFTWARE.
 */
 package com.jano7.executor;
 
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static com.jano7.executor.Util.checkNotNull;
 
 public final class KeySequentialBoundedExecutor implements DrainableExecutor {
 
+    private final KeySequentialExecutor keySequentialExecutor;
+
     private final BoundedExecutor boundedExecutor;
 
     public KeySequentialBoundedExecutor(int maxTasks, BoundedStrategy onTasksExceeded, Executor underlyingExecutor) {
-        boundedExecutor = new BoundedExecutor(maxTasks, onTasksExceeded, new KeySequentialExecutor(underlyingExecutor));
+        keySequentialExecutor = new KeySequentialExecutor(underlyingExecutor);
+        boundedExecutor = new BoundedExecutor(maxTasks, onTasksExceeded, keySequentialExecutor);
     }
 
     @Override
@@ -43,4 +50,16 @@ public final class KeySequentialBoundedExecutor implements DrainableExecutor {
     public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
         return boundedExecutor.drain(timeout, unit);
     }
+
+    public List<Runnable> cancelPending(Runnable keyTask) {
+        return cancelIf(keyTask, task -> true);
+    }
+
+    public List<Runnable> cancelIf(Runnable keyTask, Predicate<Runnable> predicate) {
+        checkNotNull(predicate, "predicate");
+        return boundedExecutor.release(keySequentialExecutor.cancelIf(
+                boundedExecutor.bounded(keyTask),
+                boundedTask -> predicate.test(boundedExecutor.unbounded(boundedTask))
+        ));
+    }
 }
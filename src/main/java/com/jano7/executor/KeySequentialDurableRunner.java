@@ -0,0 +1,479 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+public final class KeySequentialDurableRunner<Key, Msg> implements AutoCloseable {
+
+    public static final class Builder<Key, Msg> {
+
+        private final Path directory;
+        private final JournalCodec<Key, Msg> codec;
+        private final Executor underlyingExecutor;
+        private final BiConsumer<? super Key, ? super Msg> handler;
+        private TaskExceptionHandler<Key> exceptionHandler = new TaskExceptionHandler<Key>() {
+        };
+        private int segmentSize = 64 << 20;
+        private int maxFreeSegments = 4;
+        private long flushInterval = TimeUnit.MILLISECONDS.toNanos(10);
+
+        private Builder(Path directory,
+                        JournalCodec<Key, Msg> codec,
+                        Executor underlyingExecutor,
+                        BiConsumer<? super Key, ? super Msg> handler) {
+            checkNotNull(directory, "directory");
+            checkNotNull(codec, "codec");
+            checkNotNull(handler, "handler");
+            this.directory = directory;
+            this.codec = codec;
+            this.underlyingExecutor = underlyingExecutor;
+            this.handler = handler;
+        }
+
+        public Builder<Key, Msg> exceptionHandler(TaskExceptionHandler<Key> exceptionHandler) {
+            checkNotNull(exceptionHandler, "exceptionHandler");
+            this.exceptionHandler = exceptionHandler;
+            return this;
+        }
+
+        public Builder<Key, Msg> segmentSize(int segmentSize) {
+            if (segmentSize < 1024) {
+                throw new IllegalArgumentException("segmentSize must be at least 1024");
+            }
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        public Builder<Key, Msg> maxFreeSegments(int maxFreeSegments) {
+            if (maxFreeSegments < 0) {
+                throw new IllegalArgumentException("maxFreeSegments must not be negative");
+            }
+            this.maxFreeSegments = maxFreeSegments;
+            return this;
+        }
+
+        public Builder<Key, Msg> flushInterval(long flushInterval, TimeUnit unit) {
+            if (flushInterval <= 0) {
+                throw new IllegalArgumentException("flushInterval must be positive");
+            }
+            this.flushInterval = unit.toNanos(flushInterval);
+            return this;
+        }
+
+        // replays the messages which have not been processed before the runner is returned
+        public KeySequentialDurableRunner<Key, Msg> build() throws IOException {
+            return new KeySequentialDurableRunner<>(this);
+        }
+    }
+
+    private static final int MAGIC = 0x4a524e4c;
+    private static final int DATA_START = 16; // magic, padding and the segment number
+    // a record is the length of its body, the checksum of the body and the segment number, the status and the body
+    private static final int STATUS_OFFSET = 8;
+    private static final int HEADER = 9;
+    private static final byte PENDING = 1;
+    private static final byte DONE = 2;
+
+    private static final class Segment {
+
+        private final long number;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final ByteBuffer writer;
+        private final AtomicInteger pending = new AtomicInteger(0);
+        // guarded by the journal's lock
+        private boolean sealed = false;
+        private boolean recycled = false;
+
+        Segment(long number, Path path, MappedByteBuffer buffer) {
+            this.number = number;
+            this.path = path;
+            this.buffer = buffer;
+            this.writer = buffer.duplicate();
+            this.writer.position(DATA_START);
+        }
+
+        int checksum(CRC32 crc, int position, int length) {
+            crc.reset();
+            for (int shift = 0; shift < 64; shift += 8) {
+                crc.update((int) (number >>> shift));
+            }
+            ByteBuffer body = buffer.duplicate();
+            body.position(position + HEADER).limit(position + HEADER + length);
+            crc.update(body);
+            return (int) crc.getValue();
+        }
+    }
+
+    private static final class Entry<Msg> {
+
+        private final Msg msg;
+        private final Segment segment;
+        private final int position;
+
+        Entry(Msg msg, Segment segment, int position) {
+            this.msg = msg;
+            this.segment = segment;
+            this.position = position;
+        }
+    }
+
+    private final Path directory;
+    private final JournalCodec<Key, Msg> codec;
+    private final int segmentSize;
+    private final int maxFreeSegments;
+    private final long flushInterval;
+    private final KeySequentialMessageRunner<Key, Entry<Msg>> runner;
+    private final CRC32 crc = new CRC32();
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>(); // the segments not recycled yet, the active last
+    private final ArrayDeque<Segment> freeSegments = new ArrayDeque<>();
+    private final Object flushed = new Object();
+    private final Object telling = new Object(); // keeps the order of the journal, without holding its lock
+    private final Thread flusher;
+    private Segment active;
+    private long appended = 0; // guarded by the journal's lock
+    private long durable = 0; // guarded by flushed
+    private boolean syncRequested = false; // guarded by flushed
+    private volatile boolean closed = false;
+
+    private KeySequentialDurableRunner(Builder<Key, Msg> builder) throws IOException {
+        this.directory = builder.directory;
+        this.codec = builder.codec;
+        this.segmentSize = builder.segmentSize;
+        this.maxFreeSegments = builder.maxFreeSegments;
+        this.flushInterval = builder.flushInterval;
+        BiConsumer<? super Key, ? super Msg> handler = builder.handler;
+        this.runner = new KeySequentialMessageRunner<>(
+                builder.underlyingExecutor,
+                (key, entry) -> {
+                    try {
+                        handler.accept(key, entry.msg);
+                    } finally {
+                        completed(entry);
+                    }
+                },
+                builder.exceptionHandler
+        );
+        Files.createDirectories(directory);
+        List<Key> replayedKeys = new ArrayList<>();
+        List<Entry<Msg>> replayed = new ArrayList<>();
+        long last = recover(replayedKeys, replayed);
+        synchronized (this) {
+            active = newSegment(last + 1);
+        }
+        // the order of a key is kept as the entries are told in the journal's order, the keys run in parallel
+        for (int i = 0; i < replayed.size(); ++i) {
+            runner.tell(replayedKeys.get(i), replayed.get(i));
+        }
+        this.flusher = new Thread(this::flush, "journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public static <Key, Msg> Builder<Key, Msg> builder(Path directory,
+                                                       JournalCodec<Key, Msg> codec,
+                                                       Executor underlyingExecutor,
+                                                       BiConsumer<? super Key, ? super Msg> handler) {
+        return new Builder<>(directory, codec, underlyingExecutor, handler);
+    }
+
+    public void tell(Key key, Msg msg) {
+        checkNotNull(msg, "msg");
+        synchronized (telling) {
+            Entry<Msg> entry;
+            synchronized (this) {
+                if (closed) {
+                    throw new RejectedExecutionException("message for the key '" + key + "' rejected, journal closed");
+                }
+                entry = append(key, msg);
+                ++appended;
+            }
+            try {
+                runner.tell(key, entry);
+            } catch (RejectedExecutionException e) {
+                // the rejected message must not be replayed, nor keep its segment from being recycled
+                completed(entry);
+                throw e;
+            }
+        }
+    }
+
+    // blocks until the messages told before are stored durably, the callers waiting at the same time share a flush
+    public void sync() throws InterruptedException {
+        long target;
+        synchronized (this) {
+            target = appended;
+        }
+        synchronized (flushed) {
+            while (durable < target) {
+                if (closed) {
+                    throw new IllegalStateException("journal closed");
+                }
+                syncRequested = true;
+                flushed.notifyAll();
+                flushed.wait();
+            }
+        }
+    }
+
+    // flushes the journal, the messages not processed yet are replayed on the next start
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        synchronized (flushed) {
+            flushed.notifyAll();
+        }
+        boolean interrupted = false;
+        while (flusher.isAlive()) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Entry<Msg> append(Key key, Msg msg) {
+        Segment segment = active;
+        ByteBuffer writer = segment.writer;
+        int position = writer.position();
+        if (writer.remaining() < HEADER) {
+            roll();
+            return append(key, msg);
+        }
+        try {
+            writer.position(position + HEADER);
+            codec.encodeKey(key, writer);
+            codec.encodeMessage(msg, writer);
+        } catch (BufferOverflowException e) {
+            writer.position(position);
+            if (position == DATA_START) {
+                throw new IllegalArgumentException("message for the key '" + key + "' exceeds the segment size", e);
+            }
+            roll();
+            return append(key, msg);
+        }
+        int length = writer.position() - position - HEADER;
+        segment.buffer.putInt(position + 4, segment.checksum(crc, position, length));
+        segment.buffer.put(position + STATUS_OFFSET, PENDING);
+        // the length is written last, a record with a zero length ends the segment
+        segment.buffer.putInt(position, length);
+        segment.pending.incrementAndGet();
+        return new Entry<>(msg, segment, position);
+    }
+
+    // must be called while holding the journal's lock
+    private void roll() {
+        Segment sealed = active;
+        sealed.sealed = true;
+        if (sealed.writer.remaining() >= 4) {
+            sealed.buffer.putInt(sealed.writer.position(), 0);
+        }
+        try {
+            active = newSegment(sealed.number + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // the sealed segment is forced by the flusher before being recycled
+        if (sealed.pending.get() == 0) {
+            recycle(sealed);
+        }
+    }
+
+    // must be called while holding the journal's lock
+    private Segment newSegment(long number) throws IOException {
+        Path path = directory.resolve(String.format("segment-%016d.journal", number));
+        Segment free = freeSegments.poll();
+        MappedByteBuffer buffer;
+        if (free != null) {
+            Files.move(free.path, path, StandardCopyOption.ATOMIC_MOVE);
+            buffer = free.buffer;
+        } else {
+            try (FileChannel channel = FileChannel.open(
+                    path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putLong(8, number);
+        // a recycled segment's old records are invalid, as their checksums include the old segment number
+        buffer.putInt(DATA_START, 0);
+        Segment segment = new Segment(number, path, buffer);
+        segments.offer(segment);
+        return segment;
+    }
+
+    private void completed(Entry<Msg> entry) {
+        Segment segment = entry.segment;
+        segment.buffer.put(entry.position + STATUS_OFFSET, DONE);
+        if (segment.pending.decrementAndGet() == 0) {
+            synchronized (this) {
+                if (segment.sealed && segment.pending.get() == 0) {
+                    recycle(segment);
+                }
+            }
+        }
+    }
+
+    // must be called while holding the journal's lock
+    private void recycle(Segment segment) {
+        if (segment.recycled) {
+            return;
+        }
+        segment.recycled = true;
+        segments.remove(segment);
+        try {
+            if (freeSegments.size() < maxFreeSegments) {
+                Path free = directory.resolve(String.format("free-%016d.segment", segment.number));
+                Files.move(segment.path, free, StandardCopyOption.ATOMIC_MOVE);
+                freeSegments.offer(new Segment(segment.number, free, segment.buffer));
+            } else {
+                Files.delete(segment.path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long recover(List<Key> keys, List<Entry<Msg>> entries) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*")) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        Collections.sort(paths);
+        long last = 0;
+        synchronized (this) {
+            for (Path path : paths) {
+                String name = path.getFileName().toString();
+                if (name.startsWith("free-") && name.endsWith(".segment")) {
+                    if (freeSegments.size() < maxFreeSegments) {
+                        freeSegments.offer(new Segment(0, path, map(path)));
+                    } else {
+                        Files.delete(path);
+                    }
+                } else if (name.startsWith("segment-") && name.endsWith(".journal")) {
+                    Segment segment = new Segment(Long.parseLong(name.substring(8, 24)), path, map(path));
+                    segment.sealed = true;
+                    segments.offer(segment);
+                    replay(segment, keys, entries);
+                    last = Math.max(last, segment.number);
+                    if (segment.pending.get() == 0) {
+                        recycle(segment);
+                    }
+                }
+            }
+        }
+        return last;
+    }
+
+    private MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private void replay(Segment segment, List<Key> keys, List<Entry<Msg>> entries) {
+        ByteBuffer buffer = segment.buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getLong(8) != segment.number) {
+            return;
+        }
+        int position = DATA_START;
+        while (position <= buffer.limit() - HEADER) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > buffer.limit() - position - HEADER ||
+                    buffer.getInt(position + 4) != segment.checksum(crc, position, length)) {
+                break; // the end of the segment or a record torn by a crash
+            }
+            if (buffer.get(position + STATUS_OFFSET) == PENDING) {
+                ByteBuffer body = buffer.duplicate();
+                body.position(position + HEADER).limit(position + HEADER + length);
+                keys.add(codec.decodeKey(body));
+                entries.add(new Entry<>(codec.decodeMessage(body), segment, position));
+                segment.pending.incrementAndGet();
+            }
+            position += HEADER + length;
+        }
+    }
+
+    private void flush() {
+        while (true) {
+            long target;
+            List<Segment> dirty;
+            synchronized (flushed) {
+                if (!syncRequested && !closed) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(flushed, flushInterval);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                syncRequested = false;
+            }
+            synchronized (this) {
+                target = appended;
+                dirty = new ArrayList<>(segments);
+            }
+            // a single force covers every message appended so far, this is the group commit
+            for (Segment segment : dirty) {
+                segment.buffer.force();
+            }
+            synchronized (flushed) {
+                durable = target;
+                flushed.notifyAll();
+                if (closed) {
+                    return;
+                }
+            }
+        }
+    }
+}
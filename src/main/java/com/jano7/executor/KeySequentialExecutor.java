@@ -23,7 +23,10 @@ SOFTWARE.
 */
 package com.jano7.executor;
 
+import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 public final class KeySequentialExecutor implements Executor {
 
@@ -41,4 +44,24 @@ public final class KeySequentialExecutor implements Executor {
     public void execute(Runnable task) {
         runner.run(task, task);
     }
+
+    public List<Runnable> cancelPending(Runnable keyTask) {
+        return runner.cancelPending(keyTask);
+    }
+
+    public List<Runnable> cancelIf(Runnable keyTask, Predicate<Runnable> predicate) {
+        return runner.cancelIf(keyTask, predicate);
+    }
+
+    public void barrier(Runnable callback) {
+        runner.barrier(callback);
+    }
+
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+        return runner.awaitQuiescence(timeout, unit);
+    }
+
+    public boolean drain(Runnable keyTask, long timeout, TimeUnit unit) throws InterruptedException {
+        return runner.drain(keyTask, timeout, unit);
+    }
 }
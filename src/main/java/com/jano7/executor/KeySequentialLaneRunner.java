@@ -0,0 +1,393 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+public final class KeySequentialLaneRunner<Key> {
+
+    private static final int TASK = 0;
+    private static final int HOLD = 1; // the target lane starts holding the key's tasks
+    private static final int HANDOVER = 2; // the source lane has run all the key's tasks routed to it
+    private static final int RELEASE = 3; // the target lane runs the held tasks and takes the key over
+
+    private static final int SKETCH_SIZE = 8;
+    private static final int CHECK_INTERVAL = 1024;
+    private static final int REBALANCE_THRESHOLD = 64;
+
+    private final class Entry {
+
+        private final int type;
+        private final Key key;
+        private final Runnable task;
+        private final Lane target;
+
+        Entry(int type, Key key, Runnable task, Lane target) {
+            this.type = type;
+            this.key = key;
+            this.task = task;
+            this.target = target;
+        }
+    }
+
+    private final class Lane implements Runnable {
+
+        private final int index;
+        private ArrayDeque<Entry> queue = new ArrayDeque<>();
+        private ArrayDeque<Entry> batch = new ArrayDeque<>();
+        private boolean waiting = false;
+        private volatile int queued = 0;
+        private volatile int batched = 0;
+        // accessed by the lane's thread only
+        private final HashMap<Key, ArrayDeque<Entry>> holding = new HashMap<>();
+        private final Object[] sketchKeys = new Object[SKETCH_SIZE];
+        private final long[] sketchCounts = new long[SKETCH_SIZE];
+        private long sampled = 0;
+        private int sinceCheck = 0;
+        // guarded by the lane's lock, the tasks of the keys routed here from their home lanes
+        private final HashMap<Key, Integer> routedTasks = new HashMap<>();
+
+        Lane(int index) {
+            this.index = index;
+        }
+
+        // must be called while holding the lane's lock
+        void enqueue(Entry entry) {
+            queue.offer(entry);
+            queued = queue.size();
+            if (waiting) {
+                notify();
+            }
+        }
+
+        // must be called while holding the lane's lock
+        void routed(Key key) {
+            routedTasks.merge(key, 1, Integer::sum);
+        }
+
+        synchronized void routedDone(Key key) {
+            int count = routedTasks.get(key);
+            if (count > 1) {
+                routedTasks.put(key, count - 1);
+            } else {
+                routedTasks.remove(key);
+                routes.remove(key, this);
+            }
+        }
+
+        // the key idle on this lane goes back to its home lane, so that the routes do not accumulate
+        synchronized void routedIdle(Key key) {
+            if (!routedTasks.containsKey(key)) {
+                routes.remove(key, this);
+            }
+        }
+
+        int load() {
+            return queued + batched;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                synchronized (this) {
+                    while (queue.isEmpty()) {
+                        if (shutdown && holding.isEmpty()) {
+                            return;
+                        }
+                        waiting = true;
+                        try {
+                            wait();
+                        } catch (InterruptedException ignored) {
+                        }
+                        waiting = false;
+                    }
+                    ArrayDeque<Entry> swapped = batch;
+                    batch = queue;
+                    queue = swapped;
+                    queued = 0;
+                    batched = batch.size();
+                }
+                Entry entry;
+                while ((entry = batch.poll()) != null) {
+                    process(entry);
+                    batched = batch.size();
+                }
+            }
+        }
+
+        private void process(Entry entry) {
+            switch (entry.type) {
+                case TASK:
+                    if (!holding.isEmpty()) {
+                        ArrayDeque<Entry> held = holding.get(entry.key);
+                        if (held != null) {
+                            held.offer(entry);
+                            return;
+                        }
+                    }
+                    runTask(entry);
+                    sample(entry.key);
+                    if (++sinceCheck == CHECK_INTERVAL) {
+                        sinceCheck = 0;
+                        rebalance(this);
+                    }
+                    break;
+                case HOLD:
+                    holding.put(entry.key, new ArrayDeque<>());
+                    break;
+                case HANDOVER:
+                    synchronized (entry.target) {
+                        entry.target.enqueue(new Entry(RELEASE, entry.key, null, null));
+                    }
+                    break;
+                default:
+                    for (Entry held : holding.remove(entry.key)) {
+                        runTask(held);
+                    }
+                    routedIdle(entry.key);
+                    synchronized (handover) {
+                        handover.remove(entry.key);
+                    }
+            }
+        }
+
+        private void runTask(Entry entry) {
+            try {
+                entry.task.run();
+            } catch (Throwable t) {
+                exceptionHandler.onException(entry.key, t);
+            }
+            if (this != home(entry.key)) {
+                routedDone(entry.key);
+            }
+        }
+
+        // a space-saving sketch of the keys run most often by the lane since the last check
+        private void sample(Key key) {
+            int min = 0;
+            for (int i = 0; i < SKETCH_SIZE; ++i) {
+                if (Objects.equals(key, sketchKeys[i])) {
+                    ++sketchCounts[i];
+                    ++sampled;
+                    return;
+                }
+                if (sketchCounts[i] < sketchCounts[min]) {
+                    min = i;
+                }
+            }
+            sketchKeys[min] = key;
+            ++sketchCounts[min];
+            ++sampled;
+        }
+
+        @SuppressWarnings("unchecked")
+        Key candidate() {
+            int hottest = -1;
+            int second = -1;
+            for (int i = 0; i < SKETCH_SIZE; ++i) {
+                if (sketchKeys[i] == null) {
+                    continue;
+                }
+                if (hottest < 0 || sketchCounts[i] > sketchCounts[hottest]) {
+                    second = hottest;
+                    hottest = i;
+                } else if (second < 0 || sketchCounts[i] > sketchCounts[second]) {
+                    second = i;
+                }
+            }
+            if (hottest < 0) {
+                return null;
+            }
+            // a key dominating the lane would just overload another one, the other keys are moved away from it
+            if (sketchCounts[hottest] * 2 >= sampled) {
+                return second < 0 ? null : (Key) sketchKeys[second];
+            }
+            return (Key) sketchKeys[hottest];
+        }
+
+        void resetSketch() {
+            for (int i = 0; i < SKETCH_SIZE; ++i) {
+                sketchKeys[i] = null;
+                sketchCounts[i] = 0;
+            }
+            sampled = 0;
+        }
+    }
+
+    private final Lane[] lanes;
+    private final Thread[] threads;
+    private final TaskExceptionHandler<Key> exceptionHandler;
+    private final ConcurrentHashMap<Key, Lane> routes = new ConcurrentHashMap<>(); // the keys moved from home lanes
+    private final HashSet<Key> handover = new HashSet<>(); // guards the migrations too
+    private final AtomicLong migrations = new AtomicLong(0);
+    private volatile boolean shutdown = false;
+
+    public KeySequentialLaneRunner(int lanes) {
+        this(lanes, Executors.defaultThreadFactory());
+    }
+
+    public KeySequentialLaneRunner(int lanes, ThreadFactory threadFactory) {
+        this(lanes, threadFactory, new TaskExceptionHandler<Key>() {
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    public KeySequentialLaneRunner(int lanes, ThreadFactory threadFactory, TaskExceptionHandler<Key> exceptionHandler) {
+        if (lanes < 1) {
+            throw new IllegalArgumentException("lanes must be positive");
+        }
+        checkNotNull(threadFactory, "threadFactory");
+        checkNotNull(exceptionHandler, "exceptionHandler");
+        this.exceptionHandler = exceptionHandler;
+        this.lanes = (Lane[]) new KeySequentialLaneRunner<?>.Lane[lanes];
+        this.threads = new Thread[lanes];
+        for (int i = 0; i < lanes; ++i) {
+            this.lanes[i] = new Lane(i);
+            this.threads[i] = threadFactory.newThread(this.lanes[i]);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    public void run(Key key, Runnable task) {
+        checkNotNull(task);
+        Entry entry = new Entry(TASK, key, task, null);
+        while (true) {
+            Lane lane = laneOf(key);
+            synchronized (lane) {
+                // the key may have been moved in the meantime
+                if (laneOf(key) == lane) {
+                    if (shutdown) {
+                        throw new RejectedExecutionException("task for the key '" + key + "' rejected");
+                    }
+                    if (lane != home(key)) {
+                        lane.routed(key);
+                    }
+                    lane.enqueue(entry);
+                    return;
+                }
+            }
+        }
+    }
+
+    public long migrations() {
+        return migrations.get();
+    }
+
+    // the tasks accepted before are still executed
+    public void shutdown() {
+        shutdown = true;
+        for (Lane lane : lanes) {
+            synchronized (lane) {
+                lane.notify();
+            }
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread thread : threads) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+            }
+            if (thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Lane laneOf(Key key) {
+        if (!routes.isEmpty()) {
+            Lane routed = routes.get(key);
+            if (routed != null) {
+                return routed;
+            }
+        }
+        return home(key);
+    }
+
+    private Lane home(Key key) {
+        int h = Objects.hashCode(key);
+        return lanes[((h ^ (h >>> 16)) & 0x7fffffff) % lanes.length];
+    }
+
+    private void rebalance(Lane overloaded) {
+        int load = overloaded.load();
+        Lane target = overloaded;
+        int targetLoad = load;
+        for (Lane lane : lanes) {
+            int laneLoad = lane.load();
+            if (laneLoad < targetLoad) {
+                target = lane;
+                targetLoad = laneLoad;
+            }
+        }
+        // a lane is overloaded when its backlog is more than twice the backlog of the least loaded one
+        if (load >= REBALANCE_THRESHOLD && load > 2 * targetLoad) {
+            Key key = overloaded.candidate();
+            if (key != null) {
+                migrate(key, overloaded, target);
+            }
+        }
+        overloaded.resetSketch();
+    }
+
+    private void migrate(Key key, Lane from, Lane to) {
+        synchronized (handover) {
+            if (handover.contains(key) || laneOf(key) != from) {
+                return;
+            }
+            Lane first = from.index < to.index ? from : to;
+            Lane second = first == from ? to : from;
+            synchronized (first) {
+                synchronized (second) {
+                    // the target holds the key's tasks until the source has run the ones routed to it before
+                    to.enqueue(new Entry(HOLD, key, null, null));
+                    if (to == home(key)) {
+                        routes.remove(key);
+                    } else {
+                        routes.put(key, to);
+                    }
+                    from.enqueue(new Entry(HANDOVER, key, null, to));
+                    handover.add(key);
+                }
+            }
+            migrations.incrementAndGet();
+        }
+    }
+}
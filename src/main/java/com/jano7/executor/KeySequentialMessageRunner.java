@@ -0,0 +1,161 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+public final class KeySequentialMessageRunner<Key, Msg> {
+
+    // the mailbox itself is submitted to the underlying executor, so a message costs no allocation besides its slot
+    private final class Mailbox implements Runnable {
+
+        private final Key key;
+        private final ArrayDeque<Msg> messages = new ArrayDeque<>();
+
+        Mailbox(Key key) {
+            this.key = key;
+        }
+
+        synchronized void offer(Msg msg) {
+            messages.offer(msg);
+        }
+
+        synchronized Msg poll() {
+            return messages.poll();
+        }
+
+        @Override
+        public void run() {
+            for (int processed = 0; processed < throughput; ++processed) {
+                Msg msg = poll();
+                if (msg == null && retireIfEmpty()) {
+                    return;
+                }
+                if (msg != null) {
+                    handle(msg);
+                }
+            }
+            try {
+                // yield the thread to the other keys
+                underlyingExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // complete the remaining messages on this thread when the execution is rejected
+                completeOnRejection();
+            }
+        }
+
+        void handle(Msg msg) {
+            try {
+                handler.accept(key, msg);
+            } catch (Throwable t) {
+                exceptionHandler.onException(key, t);
+            }
+        }
+
+        void completeOnRejection() {
+            while (true) {
+                Msg msg = poll();
+                if (msg == null && retireIfEmpty()) {
+                    return;
+                }
+                if (msg != null) {
+                    handle(msg);
+                }
+            }
+        }
+
+        private boolean retireIfEmpty() {
+            synchronized (mailboxes) {
+                synchronized (this) {
+                    if (messages.isEmpty()) {
+                        mailboxes.remove(key, this);
+                        return true;
+                    }
+                    return false;
+                }
+            }
+        }
+    }
+
+    private final Executor underlyingExecutor;
+    private final BiConsumer<? super Key, ? super Msg> handler;
+    private final TaskExceptionHandler<Key> exceptionHandler;
+    private final int throughput;
+    private final HashMap<Key, Mailbox> mailboxes = new HashMap<>();
+
+    public KeySequentialMessageRunner(Executor underlyingExecutor, BiConsumer<? super Key, ? super Msg> handler) {
+        this(underlyingExecutor, handler, new TaskExceptionHandler<Key>() {
+        });
+    }
+
+    public KeySequentialMessageRunner(Executor underlyingExecutor,
+                                      BiConsumer<? super Key, ? super Msg> handler,
+                                      TaskExceptionHandler<Key> exceptionHandler) {
+        this(underlyingExecutor, handler, exceptionHandler, 64);
+    }
+
+    public KeySequentialMessageRunner(Executor underlyingExecutor,
+                                      BiConsumer<? super Key, ? super Msg> handler,
+                                      TaskExceptionHandler<Key> exceptionHandler,
+                                      int throughput) {
+        checkNotNull(handler, "handler");
+        checkNotNull(exceptionHandler, "exceptionHandler");
+        if (throughput < 1) {
+            throw new IllegalArgumentException("throughput must be positive");
+        }
+        this.underlyingExecutor = underlyingExecutor;
+        this.handler = handler;
+        this.exceptionHandler = exceptionHandler;
+        this.throughput = throughput;
+    }
+
+    public void tell(Key key, Msg msg) {
+        checkNotNull(msg, "msg");
+        Mailbox mailbox;
+        synchronized (mailboxes) {
+            mailbox = mailboxes.get(key);
+            if (mailbox != null) {
+                mailbox.offer(msg);
+                return;
+            }
+            mailbox = new Mailbox(key);
+            mailbox.offer(msg);
+            mailboxes.put(key, mailbox);
+        }
+        try {
+            underlyingExecutor.execute(mailbox);
+        } catch (RejectedExecutionException e) {
+            // the rejected message is the first one, the messages told meanwhile are completed on this thread
+            mailbox.poll();
+            mailbox.completeOnRejection();
+            throw new RejectedExecutionException("message for the key '" + key + "' rejected", e);
+        }
+    }
+}
@@ -0,0 +1,450 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+public final class KeySequentialOffHeapRunner<Key> implements AutoCloseable {
+
+    public static final class Builder<Key> {
+
+        private final Executor underlyingExecutor;
+        private final BiConsumer<? super Key, ? super ByteBuffer> handler;
+        private TaskExceptionHandler<Key> exceptionHandler = new TaskExceptionHandler<Key>() {
+        };
+        private int throughput = 64;
+        private int chunkSize = 64 << 10;
+        private long maxMemory = 256L << 20;
+        private Path spillDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+
+        private Builder(Executor underlyingExecutor, BiConsumer<? super Key, ? super ByteBuffer> handler) {
+            checkNotNull(handler, "handler");
+            this.underlyingExecutor = underlyingExecutor;
+            this.handler = handler;
+        }
+
+        public Builder<Key> exceptionHandler(TaskExceptionHandler<Key> exceptionHandler) {
+            checkNotNull(exceptionHandler, "exceptionHandler");
+            this.exceptionHandler = exceptionHandler;
+            return this;
+        }
+
+        public Builder<Key> throughput(int throughput) {
+            if (throughput < 1) {
+                throw new IllegalArgumentException("throughput must be positive");
+            }
+            this.throughput = throughput;
+            return this;
+        }
+
+        // the largest message is 4 bytes shorter than a chunk
+        public Builder<Key> chunkSize(int chunkSize) {
+            if (chunkSize < 64) {
+                throw new IllegalArgumentException("chunkSize must be at least 64");
+            }
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        // the chunks over the limit are spilled to disk, except the first and the last chunk of a key
+        public Builder<Key> maxMemory(long maxMemory) {
+            if (maxMemory < 0) {
+                throw new IllegalArgumentException("maxMemory must not be negative");
+            }
+            this.maxMemory = maxMemory;
+            return this;
+        }
+
+        public Builder<Key> spillDirectory(Path spillDirectory) {
+            checkNotNull(spillDirectory, "spillDirectory");
+            this.spillDirectory = spillDirectory;
+            return this;
+        }
+
+        public KeySequentialOffHeapRunner<Key> build() throws IOException {
+            return new KeySequentialOffHeapRunner<>(this);
+        }
+    }
+
+    // a chunk of a key's messages, each one stored as its length followed by its bytes
+    private static final class Chunk {
+
+        private ByteBuffer buffer; // null while spilled
+        private ByteBuffer view; // passed to the handler
+        private int written = 0;
+        private int read = 0;
+        private long slot = -1;
+
+        Chunk(ByteBuffer buffer) {
+            assign(buffer);
+        }
+
+        void assign(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.view = buffer == null ? null : buffer.asReadOnlyBuffer();
+        }
+
+        boolean fits(int length) {
+            return buffer != null && buffer.capacity() - written >= length;
+        }
+    }
+
+    // the backlog itself is submitted to the underlying executor, like the mailbox of the KeySequentialMessageRunner
+    private final class Backlog implements Runnable {
+
+        private final Key key;
+        private final ArrayDeque<Chunk> chunks = new ArrayDeque<>(); // the first chunk is always in memory
+        private boolean retired = false;
+
+        Backlog(Key key) {
+            this.key = key;
+        }
+
+        // returns false if the backlog has retired meanwhile
+        synchronized boolean offer(ByteBuffer payload) {
+            if (retired) {
+                return false;
+            }
+            int length = payload.remaining();
+            Chunk last = chunks.peekLast();
+            if (last == null || !last.fits(4 + length)) {
+                ByteBuffer buffer = acquire();
+                if (buffer == null && last != null && last != chunks.peekFirst() && last.buffer != null) {
+                    // over the limit, the full chunk is not needed before the preceding ones are processed
+                    try {
+                        buffer = spill(last);
+                    } catch (UncheckedIOException e) {
+                        // the chunk stays in memory
+                        exceptionHandler.onException(key, e);
+                    }
+                }
+                if (buffer == null) {
+                    buffer = acquireOverLimit();
+                }
+                last = new Chunk(buffer);
+                chunks.offerLast(last);
+            }
+            ByteBuffer buffer = last.buffer;
+            buffer.putInt(last.written, length);
+            buffer.position(last.written + 4);
+            buffer.put(payload);
+            last.written += 4 + length;
+            return true;
+        }
+
+        // returns the view of the next message, or null when there is none
+        synchronized ByteBuffer poll() {
+            while (true) {
+                Chunk first = chunks.peekFirst();
+                if (first.read < first.written) {
+                    int length = first.buffer.getInt(first.read);
+                    ByteBuffer view = first.view;
+                    view.clear();
+                    view.limit(first.read + 4 + length);
+                    view.position(first.read + 4);
+                    first.read += 4 + length;
+                    return view;
+                }
+                if (chunks.size() == 1) {
+                    return null;
+                }
+                chunks.pollFirst();
+                Chunk next = chunks.peekFirst();
+                if (next.buffer == null) {
+                    pageIn(next, first.buffer);
+                } else {
+                    release(first.buffer);
+                }
+            }
+        }
+
+        // a spilled chunk which cannot be read is reported and skipped, so that the key's later messages are processed
+        ByteBuffer pollOrReport() {
+            try {
+                return poll();
+            } catch (UncheckedIOException e) {
+                exceptionHandler.onException(key, e);
+                return null;
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int processed = 0; processed < throughput; ++processed) {
+                ByteBuffer msg = pollOrReport();
+                if (msg == null && retireIfEmpty()) {
+                    return;
+                }
+                if (msg != null) {
+                    handle(msg);
+                }
+            }
+            try {
+                // yield the thread to the other keys
+                underlyingExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // complete the remaining messages on this thread when the execution is rejected
+                completeOnRejection();
+            }
+        }
+
+        void handle(ByteBuffer msg) {
+            try {
+                handler.accept(key, msg);
+            } catch (Throwable t) {
+                exceptionHandler.onException(key, t);
+            }
+        }
+
+        void completeOnRejection() {
+            while (true) {
+                ByteBuffer msg = pollOrReport();
+                if (msg == null && retireIfEmpty()) {
+                    return;
+                }
+                if (msg != null) {
+                    handle(msg);
+                }
+            }
+        }
+
+        // the registry's lock is not taken while holding the backlog's one, which may be spilling a chunk
+        private boolean retireIfEmpty() {
+            synchronized (this) {
+                Chunk first = chunks.peekFirst();
+                if (chunks.size() > 1 || first.read < first.written) {
+                    return false;
+                }
+                retired = true;
+                release(first.buffer);
+            }
+            synchronized (backlogs) {
+                backlogs.remove(key, this);
+            }
+            return true;
+        }
+    }
+
+    private final Executor underlyingExecutor;
+    private final BiConsumer<? super Key, ? super ByteBuffer> handler;
+    private final TaskExceptionHandler<Key> exceptionHandler;
+    private final int throughput;
+    private final int chunkSize;
+    private final long maxChunks;
+    private final FileChannel spillFile;
+    private final HashMap<Key, Backlog> backlogs = new HashMap<>();
+    // guarded by pool
+    private final Object pool = new Object();
+    private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+    private long allocatedChunks = 0;
+    private long[] freeSlots = new long[16];
+    private int freeSlotCount = 0;
+    private long nextSlot = 0;
+    private long spilledChunks = 0;
+    private volatile boolean closed = false;
+
+    private KeySequentialOffHeapRunner(Builder<Key> builder) throws IOException {
+        this.underlyingExecutor = builder.underlyingExecutor;
+        this.handler = builder.handler;
+        this.exceptionHandler = builder.exceptionHandler;
+        this.throughput = builder.throughput;
+        this.chunkSize = builder.chunkSize;
+        this.maxChunks = builder.maxMemory / builder.chunkSize;
+        Files.createDirectories(builder.spillDirectory);
+        this.spillFile = FileChannel.open(
+                Files.createTempFile(builder.spillDirectory, "backlog-", ".spill"),
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE
+        );
+    }
+
+    public static <Key> Builder<Key> builder(Executor underlyingExecutor,
+                                             BiConsumer<? super Key, ? super ByteBuffer> handler) {
+        return new Builder<>(underlyingExecutor, handler);
+    }
+
+    // copies the remaining bytes of the payload, the handler gets a read-only buffer valid just during its call
+    public void tell(Key key, ByteBuffer payload) {
+        checkNotNull(payload, "payload");
+        if (payload.remaining() > chunkSize - 4) {
+            throw new IllegalArgumentException("payload exceeds the chunk size");
+        }
+        if (closed) {
+            throw new RejectedExecutionException("message for the key '" + key + "' rejected, runner closed");
+        }
+        Backlog backlog;
+        while (true) {
+            synchronized (backlogs) {
+                backlog = backlogs.get(key);
+                if (backlog == null) {
+                    // the first chunk is never spilled, so there is no disk write under the registry's lock
+                    backlog = new Backlog(key);
+                    backlog.offer(payload);
+                    backlogs.put(key, backlog);
+                    break;
+                }
+            }
+            // the chunk full of the key's messages may be spilled, outside of the registry's lock
+            if (backlog.offer(payload)) {
+                return;
+            }
+            // the backlog is being removed from the registry
+            Thread.yield();
+        }
+        try {
+            underlyingExecutor.execute(backlog);
+        } catch (RejectedExecutionException e) {
+            // the rejected message is the first one, the messages told meanwhile are completed on this thread
+            backlog.poll();
+            backlog.completeOnRejection();
+            throw new RejectedExecutionException("message for the key '" + key + "' rejected", e);
+        }
+    }
+
+    public long offHeapBytes() {
+        synchronized (pool) {
+            return allocatedChunks * chunkSize;
+        }
+    }
+
+    public long spilledBytes() {
+        synchronized (pool) {
+            return spilledChunks * chunkSize;
+        }
+    }
+
+    // deletes the spill file, the spilled messages not processed yet are lost and reported to the exception handler
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        spillFile.close();
+    }
+
+    private ByteBuffer acquire() {
+        synchronized (pool) {
+            ByteBuffer buffer = freeBuffers.poll();
+            if (buffer == null && allocatedChunks < maxChunks) {
+                buffer = ByteBuffer.allocateDirect(chunkSize);
+                ++allocatedChunks;
+            }
+            return buffer;
+        }
+    }
+
+    private ByteBuffer acquireOverLimit() {
+        synchronized (pool) {
+            ++allocatedChunks;
+        }
+        return ByteBuffer.allocateDirect(chunkSize);
+    }
+
+    private void release(ByteBuffer buffer) {
+        synchronized (pool) {
+            if (allocatedChunks > maxChunks) {
+                // dropped, the memory is freed when the buffer is collected
+                --allocatedChunks;
+            } else {
+                freeBuffers.offer(buffer);
+            }
+        }
+    }
+
+    // writes the chunk to the spill file and returns its buffer
+    private ByteBuffer spill(Chunk chunk) {
+        long slot;
+        synchronized (pool) {
+            slot = freeSlotCount > 0 ? freeSlots[--freeSlotCount] : nextSlot++;
+            ++spilledChunks;
+        }
+        ByteBuffer buffer = chunk.buffer;
+        buffer.clear().limit(chunk.written);
+        try {
+            long position = slot * chunkSize;
+            while (buffer.hasRemaining()) {
+                position += spillFile.write(buffer, position);
+            }
+        } catch (IOException e) {
+            buffer.clear();
+            freeSlot(slot);
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+        chunk.slot = slot;
+        chunk.assign(null);
+        return buffer;
+    }
+
+    // reads the spilled chunk into the buffer; if it cannot be read, the chunk is left empty and the failure thrown
+    private void pageIn(Chunk chunk, ByteBuffer buffer) {
+        buffer.clear().limit(chunk.written);
+        IOException failure = null;
+        try {
+            long position = chunk.slot * chunkSize;
+            while (buffer.hasRemaining()) {
+                int read = spillFile.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException("spill file truncated");
+                }
+                position += read;
+            }
+        } catch (IOException e) {
+            failure = e;
+            chunk.written = 0;
+        }
+        buffer.clear();
+        freeSlot(chunk.slot);
+        chunk.slot = -1;
+        chunk.assign(buffer);
+        if (failure != null) {
+            throw new UncheckedIOException("spilled messages lost", failure);
+        }
+    }
+
+    private void freeSlot(long slot) {
+        synchronized (pool) {
+            if (freeSlotCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeSlotCount * 2);
+            }
+            freeSlots[freeSlotCount++] = slot;
+            --spilledChunks;
+        }
+    }
+}
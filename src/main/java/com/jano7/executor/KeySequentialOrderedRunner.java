@@ -0,0 +1,203 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+public final class KeySequentialOrderedRunner<Key> {
+
+    private final class Stage<T> implements Runnable {
+
+        private final KeyPipeline pipeline;
+        private final Supplier<? extends T> compute;
+        private final Consumer<? super T> commit;
+        private T result;
+        private boolean failed = false;
+        private boolean computed = false;
+
+        Stage(KeyPipeline pipeline, Supplier<? extends T> compute, Consumer<? super T> commit) {
+            this.pipeline = pipeline;
+            this.compute = compute;
+            this.commit = commit;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result = compute.get();
+            } catch (Throwable t) {
+                failed = true;
+                exceptionHandler.onException(pipeline.key, t);
+            }
+            pipeline.computed(this);
+        }
+
+        void commit() {
+            if (!failed) {
+                try {
+                    commit.accept(result);
+                } catch (Throwable t) {
+                    exceptionHandler.onException(pipeline.key, t);
+                }
+            }
+        }
+    }
+
+    private final class KeyPipeline {
+
+        private boolean committing = false;
+        private final ArrayDeque<Stage<?>> inWindow = new ArrayDeque<>();
+        private final ArrayDeque<Stage<?>> waiting = new ArrayDeque<>();
+        private final Key key;
+
+        KeyPipeline(Key key) {
+            this.key = key;
+        }
+
+        // must be called while holding the pipeline's lock
+        Stage<?> admit(Stage<?> stage) {
+            if (inWindow.size() < window) {
+                inWindow.offer(stage);
+                return stage;
+            }
+            waiting.offer(stage);
+            return null;
+        }
+
+        void computed(Stage<?> stage) {
+            synchronized (this) {
+                stage.computed = true;
+                // results are committed by a single thread at a time, the others just leave theirs behind
+                if (committing || inWindow.peek() != stage) {
+                    return;
+                }
+                committing = true;
+            }
+            commitInOrder();
+        }
+
+        private void commitInOrder() {
+            List<Stage<?>> admitted = new ArrayList<>();
+            while (true) {
+                Stage<?> head;
+                boolean idle = false;
+                synchronized (this) {
+                    head = inWindow.peek();
+                    if (head == null || !head.computed) {
+                        committing = false;
+                        idle = head == null && waiting.isEmpty();
+                        head = null;
+                    } else {
+                        inWindow.poll();
+                        Stage<?> next = waiting.poll();
+                        if (next != null) {
+                            inWindow.offer(next);
+                            admitted.add(next);
+                        }
+                    }
+                }
+                if (head == null) {
+                    if (idle) {
+                        retireIfIdle();
+                    }
+                    break;
+                }
+                head.commit();
+                // computing the admitted stages may overlap with committing the rest
+                for (Stage<?> stage : admitted) {
+                    compute(stage);
+                }
+                admitted.clear();
+            }
+        }
+
+        private void retireIfIdle() {
+            synchronized (pipelines) {
+                synchronized (this) {
+                    if (inWindow.isEmpty() && waiting.isEmpty() && !committing) {
+                        pipelines.remove(key, this);
+                    }
+                }
+            }
+        }
+    }
+
+    private final Executor underlyingExecutor;
+    private final int window;
+    private final TaskExceptionHandler<Key> exceptionHandler;
+    private final HashMap<Key, KeyPipeline> pipelines = new HashMap<>();
+
+    public KeySequentialOrderedRunner(Executor underlyingExecutor, int window) {
+        this(underlyingExecutor, window, new TaskExceptionHandler<Key>() {
+        });
+    }
+
+    public KeySequentialOrderedRunner(Executor underlyingExecutor,
+                                      int window,
+                                      TaskExceptionHandler<Key> exceptionHandler) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        this.underlyingExecutor = underlyingExecutor;
+        this.window = window;
+        this.exceptionHandler = exceptionHandler;
+    }
+
+    public <T> void run(Key key, Supplier<? extends T> compute, Consumer<? super T> commit) {
+        checkNotNull(compute, "compute");
+        checkNotNull(commit, "commit");
+        Stage<?> admitted;
+        synchronized (pipelines) {
+            KeyPipeline pipeline = pipelines.get(key);
+            if (pipeline == null) {
+                pipeline = new KeyPipeline(key);
+                pipelines.put(key, pipeline);
+            }
+            synchronized (pipeline) {
+                admitted = pipeline.admit(new Stage<T>(pipeline, compute, commit));
+            }
+        }
+        if (admitted != null) {
+            compute(admitted);
+        }
+    }
+
+    private void compute(Stage<?> stage) {
+        try {
+            underlyingExecutor.execute(stage);
+        } catch (RejectedExecutionException e) {
+            // complete the stage on this thread when the execution is rejected
+            stage.run();
+        }
+    }
+}
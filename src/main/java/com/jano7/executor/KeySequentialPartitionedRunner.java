@@ -0,0 +1,466 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+// every node has to be given the same membership changes, a joining node the current membership first
+public final class KeySequentialPartitionedRunner<Key, Msg> implements AutoCloseable {
+
+    private static final int POINTS_PER_NODE = 128;
+
+    // the messages of a key gained from another node, held until that node has processed its messages of the key
+    private static final class Held<Msg> {
+
+        private final String from;
+        private final long epoch; // the epoch in which the key has been lost by the other node
+        private final ArrayDeque<Msg> messages = new ArrayDeque<>();
+
+        Held(String from, long epoch) {
+            this.from = from;
+            this.epoch = epoch;
+        }
+    }
+
+    private static final class Early<Key, Msg> {
+
+        private final long epoch;
+        private final Key key;
+        private final Msg msg;
+
+        Early(long epoch, Key key, Msg msg) {
+            this.epoch = epoch;
+            this.key = key;
+            this.msg = msg;
+        }
+    }
+
+    private final String node;
+    private final PartitionTransport<Key, Msg> transport;
+    private final KeySequentialRunner<Key> runner;
+    private final BiConsumer<? super Key, ? super Msg> handler;
+    // guarded by this
+    private final HashMap<String, PartitionTransport.Receiver<Key, Msg>> connections = new HashMap<>();
+    private final ArrayDeque<HashRing> history = new ArrayDeque<>(); // the rings not handed over by all nodes yet
+    private final HashMap<Key, Integer> pending = new HashMap<>(); // the messages being processed by this node
+    private final HashMap<Key, Held<Msg>> held = new HashMap<>();
+    private final HashMap<Key, String> moving = new HashMap<>(); // the keys lost, but not handed over yet
+    private final HashMap<Key, String> released = new HashMap<>(); // handed over before the hold of the key
+    private final HashMap<String, Long> completed = new HashMap<>();
+    private final ArrayDeque<Early<Key, Msg>> early = new ArrayDeque<>();
+    private final ArrayDeque<Runnable> submissions = new ArrayDeque<>(); // submitted to the runner outside the lock
+    private boolean submitting = false;
+    private HashRing ring = new HashRing(Long.MIN_VALUE, Collections.emptySet(), POINTS_PER_NODE);
+
+    public KeySequentialPartitionedRunner(String node,
+                                          PartitionTransport<Key, Msg> transport,
+                                          KeySequentialRunner<Key> runner,
+                                          BiConsumer<? super Key, ? super Msg> handler) {
+        checkNotNull(node, "node");
+        checkNotNull(transport, "transport");
+        checkNotNull(runner, "runner");
+        checkNotNull(handler, "handler");
+        this.node = node;
+        this.transport = transport;
+        this.runner = runner;
+        this.handler = handler;
+        transport.bind(node, new PartitionTransport.Receiver<Key, Msg>() {
+            @Override
+            public void onMessage(long epoch, Key key, Msg msg) {
+                received(epoch, key, msg);
+            }
+
+            @Override
+            public void onHandover(String from, Key key) {
+                handedOver(from, key);
+            }
+
+            @Override
+            public void onHandoverComplete(String from, long epoch) {
+                handoverCompleted(from, epoch);
+            }
+        });
+    }
+
+    // processes the message on this node or forwards it to the node owning the key
+    public void tell(Key key, Msg msg) {
+        checkNotNull(msg, "msg");
+        List<Runnable> signals = new ArrayList<>(1);
+        synchronized (this) {
+            if (ring.nodes().isEmpty()) {
+                throw new IllegalStateException("no members");
+            }
+            dispatch(key, msg, signals);
+        }
+        RejectedExecutionException rejected = submitQueued();
+        RuntimeException failure = send(signals);
+        if (rejected != null) {
+            throw rejected;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // the epochs of the membership changes must increase, the same epoch means the same membership on every node
+    public void members(long epoch, Collection<String> nodes) {
+        checkNotNull(nodes, "nodes");
+        List<Runnable> signals = new ArrayList<>();
+        synchronized (this) {
+            if (epoch <= ring.epoch()) {
+                throw new IllegalArgumentException("epoch " + epoch + " not after " + ring.epoch());
+            }
+            history.offer(ring);
+            ring = new HashRing(epoch, nodes, POINTS_PER_NODE);
+            released.clear();
+            forgetDeparted(signals);
+            Set<Key> active = new LinkedHashSet<>(pending.keySet());
+            active.addAll(held.keySet());
+            for (Key key : active) {
+                String owner = ring.owner(key);
+                if (owner != null && !node.equals(owner) && !moving.containsKey(key)) {
+                    // handed over to the owner of this epoch, it passes the key on if the key has moved again
+                    moving.put(key, owner);
+                }
+            }
+            if (moving.isEmpty()) {
+                completeHandover(signals);
+            }
+            prune();
+            for (int i = early.size(); i > 0; --i) {
+                Early<Key, Msg> message = early.poll();
+                received(message.epoch, message.key, message.msg, signals);
+            }
+        }
+        sendOrLog(signals);
+    }
+
+    public synchronized String owner(Key key) {
+        return ring.owner(key);
+    }
+
+    @Override
+    public void close() {
+        transport.unbind(node);
+    }
+
+    // must be called while holding the lock
+    private void forgetDeparted(List<Runnable> signals) {
+        // a node which has left (or crashed) will not hand its keys over, the keys are no longer held for it
+        List<Key> departed = new ArrayList<>();
+        for (Map.Entry<Key, Held<Msg>> entry : held.entrySet()) {
+            if (!ring.nodes().contains(entry.getValue().from)) {
+                departed.add(entry.getKey());
+            }
+        }
+        for (Key key : departed) {
+            Held<Msg> hold = held.remove(key);
+            // the key may still be held for the node which had handed it over to the departed one
+            Held<Msg> previous = holdFor(key);
+            if (previous != null) {
+                previous.messages.addAll(hold.messages);
+            } else {
+                release(key, hold, signals);
+            }
+        }
+        // the keys being moved to a departed node are handed over to their current owners instead
+        for (Iterator<Map.Entry<Key, String>> entries = moving.entrySet().iterator(); entries.hasNext(); ) {
+            Map.Entry<Key, String> entry = entries.next();
+            if (!ring.nodes().contains(entry.getValue())) {
+                String owner = ring.owner(entry.getKey());
+                if (owner == null || node.equals(owner)) {
+                    entries.remove();
+                } else {
+                    entry.setValue(owner);
+                }
+            }
+        }
+    }
+
+    // must be called while holding the lock
+    private void dispatch(Key key, Msg msg, List<Runnable> signals) {
+        String owner = ring.owner(key);
+        if (!node.equals(owner)) {
+            long epoch = ring.epoch();
+            PartitionTransport.Receiver<Key, Msg> receiver = connection(owner);
+            signals.add(() -> receiver.onMessage(epoch, key, msg));
+            return;
+        }
+        Held<Msg> hold = held.get(key);
+        if (hold == null) {
+            hold = holdFor(key);
+        }
+        if (hold != null) {
+            hold.messages.offer(msg);
+        } else {
+            process(key, msg);
+        }
+    }
+
+    // must be called while holding the lock
+    private Held<Msg> holdFor(Key key) {
+        long lostIn = ring.epoch();
+        for (Iterator<HashRing> rings = history.descendingIterator(); rings.hasNext(); ) {
+            HashRing previous = rings.next();
+            String owner = previous.owner(key);
+            if (owner == null) {
+                return null;
+            }
+            if (!node.equals(owner) && ring.nodes().contains(owner)) {
+                if (owner.equals(released.get(key)) || completed.getOrDefault(owner, Long.MIN_VALUE) >= lostIn) {
+                    return null;
+                }
+                Held<Msg> hold = new Held<>(owner, lostIn);
+                held.put(key, hold);
+                return hold;
+            }
+            lostIn = previous.epoch();
+        }
+        return null;
+    }
+
+    // must be called while holding the lock
+    private void process(Key key, Msg msg) {
+        pending.merge(key, 1, Integer::sum);
+        submissions.offer(() -> submit(key, msg));
+    }
+
+    private void submit(Key key, Msg msg) {
+        try {
+            runner.run(key, () -> {
+                try {
+                    handler.accept(key, msg);
+                } finally {
+                    processed(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the message is not processed, but the key must still be handed over
+            processed(key);
+            throw e;
+        }
+    }
+
+    // submits the queued messages to the runner in order, from a single thread at a time, so that the handlers
+    // never run under the lock; returns the first rejection
+    private RejectedExecutionException submitQueued() {
+        synchronized (this) {
+            if (submitting) {
+                return null;
+            }
+            submitting = true;
+        }
+        RejectedExecutionException rejected = null;
+        while (true) {
+            Runnable submission;
+            synchronized (this) {
+                submission = submissions.poll();
+                if (submission == null) {
+                    submitting = false;
+                    return rejected;
+                }
+            }
+            try {
+                submission.run();
+            } catch (RejectedExecutionException e) {
+                if (rejected == null) {
+                    rejected = e;
+                }
+            }
+        }
+    }
+
+    private void processed(Key key) {
+        List<Runnable> signals = new ArrayList<>(2);
+        synchronized (this) {
+            int count = pending.get(key);
+            if (count > 1) {
+                pending.put(key, count - 1);
+                return;
+            }
+            pending.remove(key);
+            handOverIfIdle(key, signals);
+        }
+        sendOrLog(signals);
+    }
+
+    // must be called while holding the lock
+    private void handOverIfIdle(Key key, List<Runnable> signals) {
+        if (pending.containsKey(key) || held.containsKey(key)) {
+            return;
+        }
+        String to = moving.remove(key);
+        if (to != null) {
+            PartitionTransport.Receiver<Key, Msg> receiver = connection(to);
+            signals.add(() -> receiver.onHandover(node, key));
+            if (moving.isEmpty()) {
+                completeHandover(signals);
+            }
+        }
+    }
+
+    // must be called while holding the lock
+    private void completeHandover(List<Runnable> signals) {
+        long epoch = ring.epoch();
+        Set<String> nodes = new LinkedHashSet<>(ring.nodes());
+        for (HashRing previous : history) {
+            nodes.addAll(previous.nodes());
+        }
+        nodes.remove(node);
+        for (String to : nodes) {
+            PartitionTransport.Receiver<Key, Msg> receiver = connection(to);
+            signals.add(() -> receiver.onHandoverComplete(node, epoch));
+        }
+    }
+
+    private void received(long epoch, Key key, Msg msg) {
+        List<Runnable> signals = new ArrayList<>(1);
+        synchronized (this) {
+            received(epoch, key, msg, signals);
+        }
+        sendOrLog(signals);
+    }
+
+    // must be called while holding the lock
+    private void received(long epoch, Key key, Msg msg, List<Runnable> signals) {
+        if (epoch > ring.epoch()) {
+            // routed by a membership this node has not been given yet
+            early.offer(new Early<>(epoch, key, msg));
+        } else {
+            dispatch(key, msg, signals);
+        }
+    }
+
+    private void handedOver(String from, Key key) {
+        List<Runnable> signals = new ArrayList<>(1);
+        synchronized (this) {
+            Held<Msg> hold = held.get(key);
+            if (hold != null && hold.from.equals(from)) {
+                release(key, hold, signals);
+            } else {
+                released.put(key, from);
+            }
+        }
+        sendOrLog(signals);
+    }
+
+    private void handoverCompleted(String from, long epoch) {
+        List<Runnable> signals = new ArrayList<>();
+        synchronized (this) {
+            if (completed.getOrDefault(from, Long.MIN_VALUE) >= epoch) {
+                return;
+            }
+            completed.put(from, epoch);
+            List<Map.Entry<Key, Held<Msg>>> releasable = new ArrayList<>();
+            for (Map.Entry<Key, Held<Msg>> entry : held.entrySet()) {
+                if (entry.getValue().from.equals(from) && entry.getValue().epoch <= epoch) {
+                    releasable.add(entry);
+                }
+            }
+            for (Map.Entry<Key, Held<Msg>> entry : releasable) {
+                release(entry.getKey(), entry.getValue(), signals);
+            }
+            released.values().removeIf(from::equals);
+            prune();
+        }
+        sendOrLog(signals);
+    }
+
+    // must be called while holding the lock
+    private void release(Key key, Held<Msg> hold, List<Runnable> signals) {
+        held.remove(key);
+        for (Msg msg : hold.messages) {
+            process(key, msg);
+        }
+        handOverIfIdle(key, signals);
+    }
+
+    // must be called while holding the lock
+    private void prune() {
+        while (!history.isEmpty()) {
+            HashRing oldest = history.peek();
+            long lostIn = history.size() > 1 ? secondOldestEpoch() : ring.epoch();
+            for (String owner : oldest.nodes()) {
+                if (!node.equals(owner) && ring.nodes().contains(owner)
+                        && completed.getOrDefault(owner, Long.MIN_VALUE) < lostIn) {
+                    return;
+                }
+            }
+            history.poll();
+        }
+    }
+
+    private long secondOldestEpoch() {
+        Iterator<HashRing> rings = history.iterator();
+        rings.next();
+        return rings.next().epoch();
+    }
+
+    // must be called while holding the lock
+    private PartitionTransport.Receiver<Key, Msg> connection(String to) {
+        return connections.computeIfAbsent(to, transport::connect);
+    }
+
+    // every signal is sent, a failed one does not stop the others; returns the first failure
+    private static RuntimeException send(List<Runnable> signals) {
+        RuntimeException failure = null;
+        for (Runnable signal : signals) {
+            try {
+                signal.run();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        return failure;
+    }
+
+    // the state has already changed, so the failure is not thrown to the caller
+    private void sendOrLog(List<Runnable> signals) {
+        RejectedExecutionException rejected = submitQueued();
+        if (rejected != null) {
+            AsyncExceptionLogger.log(rejected);
+        }
+        RuntimeException failure = send(signals);
+        if (failure != null) {
+            AsyncExceptionLogger.log(failure);
+        }
+    }
+}
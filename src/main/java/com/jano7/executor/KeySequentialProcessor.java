@@ -0,0 +1,301 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+// a reactive stage keeping the library free of dependencies and Java 8 compatible, its signals follow the Reactive
+// Streams (Flow) protocol, e.g. 'processor.onSubscribe(subscription::request, subscription::cancel)'
+public final class KeySequentialProcessor<Item, Key, Result> {
+
+    public interface ResultSubscriber<Key, Result> {
+
+        void onNext(Key key, Result result);
+
+        default void onError(Throwable t) {
+        }
+
+        default void onComplete() {
+        }
+    }
+
+    private static final class Completed<Key, Result> {
+
+        private final Key key;
+        private final Result result;
+
+        Completed(Key key, Result result) {
+            this.key = key;
+            this.result = result;
+        }
+    }
+
+    private final KeySequentialRunner<Key> runner;
+    private final Function<? super Item, ? extends Key> keyFunction;
+    private final Function<? super Item, ? extends Result> function;
+    private final int maxInFlight;
+    private final int maxInFlightPerKey;
+    // guarded by this
+    private final HashMap<Key, Integer> inFlightPerKey = new HashMap<>();
+    private final ArrayDeque<Completed<Key, Result>> results = new ArrayDeque<>();
+    private LongConsumer upstreamRequest;
+    private Runnable upstreamCancel;
+    private ResultSubscriber<? super Key, ? super Result> downstream;
+    private long requested = 0; // requested from the upstream, but not received yet
+    private int inFlight = 0; // received from the upstream, but not delivered to the downstream yet
+    private int saturatedKeys = 0;
+    private long demand = 0;
+    private boolean upstreamDone = false;
+    private Throwable failure;
+    private boolean cancelled = false;
+    private boolean cancelPending = false; // the upstream is to be cancelled by the draining thread
+    private boolean terminated = false;
+    private boolean draining = false;
+    private boolean missed = false;
+
+    public KeySequentialProcessor(KeySequentialRunner<Key> runner,
+                                  Function<? super Item, ? extends Key> keyFunction,
+                                  Function<? super Item, ? extends Result> function,
+                                  int maxInFlight,
+                                  int maxInFlightPerKey) {
+        checkNotNull(runner, "runner");
+        checkNotNull(keyFunction, "keyFunction");
+        checkNotNull(function, "function");
+        if (maxInFlight < 1 || maxInFlightPerKey < 1) {
+            throw new IllegalArgumentException("maxInFlight and maxInFlightPerKey must be positive");
+        }
+        this.runner = runner;
+        this.keyFunction = keyFunction;
+        this.function = function;
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightPerKey = maxInFlightPerKey;
+    }
+
+    // the upstream side
+
+    public void onSubscribe(LongConsumer request, Runnable cancel) {
+        checkNotNull(request, "request");
+        checkNotNull(cancel, "cancel");
+        boolean cancelNow;
+        synchronized (this) {
+            cancelNow = upstreamRequest != null || cancelled;
+            if (!cancelNow) {
+                upstreamRequest = request;
+                upstreamCancel = cancel;
+            }
+        }
+        if (cancelNow) {
+            cancel.run(); // a single upstream is supported
+        } else {
+            drain();
+        }
+    }
+
+    public void onNext(Item item) {
+        checkNotNull(item, "item");
+        Key key = keyFunction.apply(item);
+        synchronized (this) {
+            if (requested != Long.MAX_VALUE) {
+                --requested;
+            }
+            if (cancelled || failure != null) {
+                return; // the items arriving after the upstream has been cancelled are dropped
+            }
+            ++inFlight;
+            int keyInFlight = inFlightPerKey.merge(key, 1, Integer::sum);
+            if (keyInFlight == maxInFlightPerKey) {
+                ++saturatedKeys;
+            }
+        }
+        try {
+            runner.run(key, () -> {
+                Result result;
+                try {
+                    result = function.apply(item);
+                } catch (Throwable t) {
+                    processed(key, null, t);
+                    return;
+                }
+                processed(key, result, null);
+            });
+        } catch (RejectedExecutionException e) {
+            processed(key, null, e);
+        }
+    }
+
+    public void onError(Throwable t) {
+        checkNotNull(t, "t");
+        synchronized (this) {
+            upstreamDone = true;
+            if (failure == null) {
+                failure = t;
+            }
+        }
+        drain();
+    }
+
+    public void onComplete() {
+        synchronized (this) {
+            upstreamDone = true;
+        }
+        drain();
+    }
+
+    // the downstream side, the results of a key are delivered in the order of its items
+
+    public void subscribe(ResultSubscriber<? super Key, ? super Result> subscriber) {
+        checkNotNull(subscriber, "subscriber");
+        synchronized (this) {
+            if (downstream != null) {
+                throw new IllegalStateException("already subscribed");
+            }
+            downstream = subscriber;
+        }
+        drain();
+    }
+
+    public void request(long n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be positive");
+        }
+        synchronized (this) {
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+        }
+        drain();
+    }
+
+    // cancels the upstream and drops the results not delivered yet
+    public void cancel() {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            cancelPending = true;
+            inFlight -= results.size();
+            results.clear();
+        }
+        drain();
+    }
+
+    private void processed(Key key, Result result, Throwable t) {
+        synchronized (this) {
+            int keyInFlight = inFlightPerKey.get(key);
+            if (keyInFlight == maxInFlightPerKey) {
+                --saturatedKeys;
+            }
+            if (keyInFlight == 1) {
+                inFlightPerKey.remove(key);
+            } else {
+                inFlightPerKey.put(key, keyInFlight - 1);
+            }
+            if (cancelled) {
+                --inFlight;
+            } else if (t != null) {
+                --inFlight;
+                if (failure == null) {
+                    failure = t;
+                    cancelPending = true;
+                }
+            } else {
+                results.offer(new Completed<>(key, result));
+            }
+        }
+        drain();
+    }
+
+    // delivers the results and signals the upstream from a single thread at a time, so that the upstream's request
+    // and cancel are never called concurrently; the thread arriving meanwhile leaves it to the active one
+    private void drain() {
+        synchronized (this) {
+            if (draining) {
+                missed = true;
+                return;
+            }
+            draining = true;
+        }
+        while (true) {
+            Runnable cancel = null;
+            LongConsumer request = null;
+            long n = 0;
+            Completed<Key, Result> completed = null;
+            Throwable error = null;
+            boolean complete = false;
+            ResultSubscriber<? super Key, ? super Result> subscriber;
+            synchronized (this) {
+                subscriber = downstream;
+                boolean delivering = subscriber != null && !cancelled && !terminated;
+                if (cancelPending && upstreamCancel != null) {
+                    cancel = upstreamCancel;
+                    upstreamCancel = null;
+                    cancelPending = false;
+                } else if (delivering && demand > 0 && !results.isEmpty()) {
+                    completed = results.poll();
+                    --inFlight;
+                    if (demand != Long.MAX_VALUE) {
+                        --demand;
+                    }
+                } else if (delivering && results.isEmpty() && inFlight == 0 && (upstreamDone || failure != null)) {
+                    terminated = true;
+                    error = failure;
+                    complete = failure == null;
+                } else if (upstreamRequest != null && !upstreamDone && !cancelled && failure == null &&
+                        saturatedKeys == 0 && maxInFlight - inFlight - requested > 0) {
+                    // requests from the upstream as many items as fit in flight, unless a key has too many in flight
+                    request = upstreamRequest;
+                    n = maxInFlight - inFlight - requested;
+                    requested += n;
+                } else {
+                    if (!missed) {
+                        draining = false;
+                        break;
+                    }
+                    missed = false;
+                    continue;
+                }
+            }
+            try {
+                if (cancel != null) {
+                    cancel.run();
+                } else if (request != null) {
+                    request.accept(n);
+                } else if (completed != null) {
+                    subscriber.onNext(completed.key, completed.result);
+                } else if (error != null) {
+                    subscriber.onError(error);
+                } else {
+                    subscriber.onComplete();
+                }
+            } catch (Throwable t) {
+                AsyncExceptionLogger.log(t);
+            }
+        }
+    }
+}
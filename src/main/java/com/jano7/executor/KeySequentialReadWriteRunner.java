@@ -0,0 +1,216 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.jano7.executor.AccessMode.WRITE;
+import static com.jano7.executor.Util.checkNotNull;
+
+public final class KeySequentialReadWriteRunner<Key> {
+
+    private final class Task implements Runnable {
+
+        private final KeyRunner runner;
+        private final AccessMode mode;
+        private final Runnable task;
+
+        Task(KeyRunner runner, AccessMode mode, Runnable task) {
+            this.runner = runner;
+            this.mode = mode;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            runner.runSafely(task);
+            runner.dispatch(runner.complete(this));
+        }
+    }
+
+    private final class KeyRunner {
+
+        private boolean accept = true;
+        private int activeReaders = 0;
+        private boolean activeWriter = false;
+        private final LinkedList<Task> tasks = new LinkedList<>();
+        private final Key key;
+
+        KeyRunner(Key key) {
+            this.key = key;
+        }
+
+        // must be called while holding the runner's lock
+        private void collectReady(List<Task> ready) {
+            while (!activeWriter && !tasks.isEmpty()) {
+                if (tasks.peek().mode == WRITE) {
+                    if (activeReaders > 0) {
+                        break;
+                    }
+                    activeWriter = true;
+                } else {
+                    ++activeReaders;
+                }
+                ready.add(tasks.poll());
+            }
+        }
+
+        // must be called while holding the runner's lock
+        private boolean isIdle() {
+            return tasks.isEmpty() && activeReaders == 0 && !activeWriter;
+        }
+
+        List<Task> complete(Task task) {
+            List<Task> ready = new ArrayList<>(1);
+            boolean idle;
+            synchronized (this) {
+                if (task.mode == WRITE) {
+                    activeWriter = false;
+                } else {
+                    --activeReaders;
+                }
+                collectReady(ready);
+                idle = isIdle();
+            }
+            if (idle) {
+                retireIfIdle();
+            }
+            return ready;
+        }
+
+        void dispatch(List<Task> ready) {
+            ArrayDeque<Task> rejected = null;
+            for (Task task : ready) {
+                try {
+                    underlyingExecutor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    synchronized (this) {
+                        accept = false;
+                    }
+                    if (rejected == null) {
+                        rejected = new ArrayDeque<>();
+                    }
+                    rejected.add(task);
+                }
+            }
+            if (rejected != null) {
+                // complete the task and the queued ones on this thread when the execution is rejected
+                Task task;
+                while ((task = rejected.poll()) != null) {
+                    runSafely(task.task);
+                    rejected.addAll(complete(task));
+                }
+            }
+        }
+
+        private void retireIfIdle() {
+            synchronized (keyRunners) {
+                synchronized (this) {
+                    if (isIdle()) {
+                        keyRunners.remove(key, this);
+                    }
+                }
+            }
+        }
+
+        private void runSafely(Runnable task) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                exceptionHandler.onException(key, t);
+            }
+        }
+
+        private String rejection() {
+            return "task for the key '" + key + "' rejected";
+        }
+    }
+
+    private final Executor underlyingExecutor;
+    private final TaskExceptionHandler<Key> exceptionHandler;
+    private final HashMap<Key, KeyRunner> keyRunners = new HashMap<>();
+
+    public KeySequentialReadWriteRunner(Executor underlyingExecutor) {
+        this.underlyingExecutor = underlyingExecutor;
+        this.exceptionHandler = new TaskExceptionHandler<Key>() {
+        };
+    }
+
+    public KeySequentialReadWriteRunner(Executor underlyingExecutor, TaskExceptionHandler<Key> exceptionHandler) {
+        this.underlyingExecutor = underlyingExecutor;
+        this.exceptionHandler = exceptionHandler;
+    }
+
+    public void read(Key key, Runnable task) {
+        run(key, AccessMode.READ, task);
+    }
+
+    public void write(Key key, Runnable task) {
+        run(key, WRITE, task);
+    }
+
+    public void run(Key key, AccessMode mode, Runnable task) {
+        checkNotNull(task);
+        checkNotNull(mode, "mode");
+        KeyRunner runner;
+        List<Task> ready = new ArrayList<>(1);
+        boolean wasIdle;
+        synchronized (keyRunners) {
+            runner = keyRunners.get(key);
+            if (runner == null) {
+                runner = new KeyRunner(key);
+                keyRunners.put(key, runner);
+            }
+            synchronized (runner) {
+                if (!runner.accept) {
+                    throw new RejectedExecutionException(runner.rejection());
+                }
+                wasIdle = runner.isIdle();
+                runner.tasks.offer(new Task(runner, mode, task));
+                runner.collectReady(ready);
+            }
+        }
+        if (wasIdle) {
+            // the submitted task is the only one ready, reject it if it cannot be executed
+            Task first = ready.get(0);
+            try {
+                underlyingExecutor.execute(first);
+            } catch (RejectedExecutionException e) {
+                synchronized (runner) {
+                    runner.accept = false;
+                }
+                runner.dispatch(runner.complete(first));
+                throw new RejectedExecutionException(runner.rejection(), e);
+            }
+        } else {
+            runner.dispatch(ready);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+public final class KeySequentialReorderingRunner<Key> {
+
+    private final class ReorderBuffer {
+
+        private final Key key;
+        private long expected = 0;
+        private Runnable[] ring; // allocated only while early arrivals are held
+        private int buffered = 0;
+        private TimerWheel.Timeout gapTimeout;
+
+        ReorderBuffer(Key key) {
+            this.key = key;
+        }
+
+        // the methods below must be called while holding the buffer's lock
+
+        boolean isHeld(long sequence) {
+            return ring != null && ring[index(sequence)] != null;
+        }
+
+        void hold(long sequence, Runnable task) {
+            if (ring == null) {
+                ring = new Runnable[capacity];
+            }
+            ring[index(sequence)] = task;
+            ++buffered;
+            if (gapTimeout == null) {
+                scheduleGapTimeout();
+            }
+        }
+
+        RejectedExecutionException release(Runnable task) {
+            RejectedExecutionException rejected = submit(task);
+            RejectedExecutionException e = releaseHeld();
+            return rejected != null ? rejected : e;
+        }
+
+        // releases the held tasks following the expected sequence
+        private RejectedExecutionException releaseHeld() {
+            RejectedExecutionException rejected = null;
+            while (buffered > 0) {
+                int index = index(expected);
+                Runnable next = ring[index];
+                if (next == null) {
+                    break;
+                }
+                ring[index] = null;
+                --buffered;
+                RejectedExecutionException e = submit(next);
+                if (rejected == null) {
+                    rejected = e;
+                }
+            }
+            if (buffered == 0) {
+                ring = null;
+                if (gapTimeout != null) {
+                    gapTimeout.cancel();
+                    gapTimeout = null;
+                }
+            }
+            return rejected;
+        }
+
+        void clear() {
+            if (gapTimeout != null) {
+                gapTimeout.cancel();
+                gapTimeout = null;
+            }
+            ring = null;
+            buffered = 0;
+        }
+
+        private RejectedExecutionException submit(Runnable task) {
+            ++expected;
+            try {
+                runner.run(key, task);
+                return null;
+            } catch (RejectedExecutionException e) {
+                return e;
+            }
+        }
+
+        private void scheduleGapTimeout() {
+            final long scheduledAt = expected;
+            gapTimeout = timer.schedule(() -> onGapTimeout(scheduledAt), gapTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void onGapTimeout(long scheduledAt) {
+            synchronized (this) {
+                gapTimeout = null;
+                if (buffered == 0) {
+                    return;
+                }
+                if (expected != scheduledAt) {
+                    // the sequence has moved on since, give the new gap the full timeout
+                    scheduleGapTimeout();
+                    return;
+                }
+                long firstHeld = expected + 1;
+                while (ring[index(firstHeld)] == null) {
+                    ++firstHeld;
+                }
+                // the handler is notified before the held tasks are released so that it can fill the gap in sequence
+                gapHandler.onGap(key, expected, firstHeld - 1);
+                // the tasks run by the handler may have released the held ones already
+                if (expected < firstHeld && buffered > 0) {
+                    expected = firstHeld;
+                    releaseHeld();
+                }
+                if (buffered > 0 && gapTimeout == null) {
+                    scheduleGapTimeout();
+                }
+            }
+        }
+
+        private int index(long sequence) {
+            return (int) (sequence % capacity);
+        }
+    }
+
+    private final KeySequentialRunner<Key> runner;
+    private final int capacity;
+    private final long gapTimeoutNanos;
+    private final SequenceGapHandler<Key> gapHandler;
+    private final TimerWheel timer;
+    private final HashMap<Key, ReorderBuffer> buffers = new HashMap<>();
+
+    public KeySequentialReorderingRunner(KeySequentialRunner<Key> runner,
+                                         int capacity,
+                                         long gapTimeout,
+                                         TimeUnit unit,
+                                         SequenceGapHandler<Key> gapHandler) {
+        this(runner, capacity, gapTimeout, unit, gapHandler, TimerWheel.shared());
+    }
+
+    public KeySequentialReorderingRunner(KeySequentialRunner<Key> runner,
+                                         int capacity,
+                                         long gapTimeout,
+                                         TimeUnit unit,
+                                         SequenceGapHandler<Key> gapHandler,
+                                         TimerWheel timer) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (gapTimeout <= 0) {
+            throw new IllegalArgumentException("gapTimeout must be positive");
+        }
+        checkNotNull(gapHandler, "gapHandler");
+        this.runner = runner;
+        this.capacity = capacity;
+        this.gapTimeoutNanos = unit.toNanos(gapTimeout);
+        this.gapHandler = gapHandler;
+        this.timer = timer;
+    }
+
+    public void run(Key key, long sequence, Runnable task) {
+        checkNotNull(task);
+        if (sequence < 0) {
+            throw new IllegalArgumentException("sequence must not be negative");
+        }
+        ReorderBuffer buffer;
+        synchronized (buffers) {
+            buffer = buffers.get(key);
+            if (buffer == null) {
+                buffer = new ReorderBuffer(key);
+                buffers.put(key, buffer);
+            }
+        }
+        RejectedExecutionException rejected = null;
+        boolean discarded = false;
+        synchronized (buffer) {
+            // a sequence too far ahead would be mistaken for the earlier one held in its slot
+            if (sequence - buffer.expected >= capacity) {
+                throw new RejectedExecutionException("sequence " + sequence + " for the key '" + key +
+                        "' is too far ahead of " + buffer.expected);
+            } else if (sequence < buffer.expected || buffer.isHeld(sequence)) {
+                discarded = true;
+            } else if (sequence == buffer.expected) {
+                rejected = buffer.release(task);
+            } else {
+                buffer.hold(sequence, task);
+            }
+        }
+        if (discarded) {
+            gapHandler.onDiscarded(key, sequence, task);
+        }
+        if (rejected != null) {
+            throw rejected;
+        }
+    }
+
+    // starts the key's sequence at the number, e.g. when resuming from a checkpoint; any early arrivals still held
+    // are discarded
+    public void reset(Key key, long nextSequence) {
+        if (nextSequence < 0) {
+            throw new IllegalArgumentException("nextSequence must not be negative");
+        }
+        ReorderBuffer buffer;
+        synchronized (buffers) {
+            buffer = buffers.get(key);
+            if (buffer == null) {
+                buffer = new ReorderBuffer(key);
+                buffers.put(key, buffer);
+            }
+        }
+        synchronized (buffer) {
+            buffer.clear();
+            buffer.expected = nextSequence;
+        }
+    }
+
+    public long nextSequence(Key key) {
+        ReorderBuffer buffer;
+        synchronized (buffers) {
+            buffer = buffers.get(key);
+        }
+        if (buffer == null) {
+            return 0;
+        }
+        synchronized (buffer) {
+            return buffer.expected;
+        }
+    }
+
+    // drops the key's sequence state, any early arrivals still held are discarded
+    public void forget(Key key) {
+        ReorderBuffer buffer;
+        synchronized (buffers) {
+            buffer = buffers.remove(key);
+        }
+        if (buffer != null) {
+            synchronized (buffer) {
+                buffer.clear();
+            }
+        }
+    }
+}
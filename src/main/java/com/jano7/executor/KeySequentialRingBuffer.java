@@ -0,0 +1,160 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+public final class KeySequentialRingBuffer<Key, Msg> {
+
+    private static final class Slot<Key, Msg> {
+
+        private Key key;
+        private Msg msg;
+        private volatile long published = -1;
+    }
+
+    // set in the claimed sequence on shutdown, so that no sequence can be claimed afterwards
+    private static final long SHUTDOWN = 1L << 62;
+
+    private final KeySequentialMessageRunner<Key, Msg> runner;
+    private final WaitStrategy waitStrategy;
+    private final TaskExceptionHandler<Key> exceptionHandler;
+    private final Slot<Key, Msg>[] slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong(0); // the next sequence to be claimed
+    private final AtomicLong dispatched = new AtomicLong(0); // the next sequence to be dispatched
+    private final Thread dispatcher;
+
+    public KeySequentialRingBuffer(int capacity,
+                                   KeySequentialMessageRunner<Key, Msg> runner,
+                                   WaitStrategy waitStrategy) {
+        this(capacity, runner, waitStrategy, new TaskExceptionHandler<Key>() {
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    public KeySequentialRingBuffer(int capacity,
+                                   KeySequentialMessageRunner<Key, Msg> runner,
+                                   WaitStrategy waitStrategy,
+                                   TaskExceptionHandler<Key> exceptionHandler) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+        checkNotNull(runner, "runner");
+        checkNotNull(waitStrategy, "waitStrategy");
+        checkNotNull(exceptionHandler, "exceptionHandler");
+        this.runner = runner;
+        this.waitStrategy = waitStrategy;
+        this.exceptionHandler = exceptionHandler;
+        this.slots = (Slot<Key, Msg>[]) new Slot<?, ?>[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            slots[i] = new Slot<>();
+        }
+        this.mask = capacity - 1;
+        this.dispatcher = new Thread(this::dispatch, "ring-buffer-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    public void publish(Key key, Msg msg) {
+        checkNotNull(msg, "msg");
+        long sequence;
+        while ((sequence = tryClaim()) < 0) {
+            waitStrategy.idle();
+        }
+        write(sequence, key, msg);
+    }
+
+    public boolean tryPublish(Key key, Msg msg) {
+        checkNotNull(msg, "msg");
+        long sequence = tryClaim();
+        if (sequence < 0) {
+            return false;
+        }
+        write(sequence, key, msg);
+        return true;
+    }
+
+    // stops accepting messages, the published ones are still dispatched to the runner
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        long current;
+        do {
+            current = claimed.get();
+        } while ((current & SHUTDOWN) == 0 && !claimed.compareAndSet(current, current | SHUTDOWN));
+        dispatcher.join(Math.max(1, unit.toMillis(timeout)));
+        return !dispatcher.isAlive();
+    }
+
+    // returns -1 only if the buffer is full, a CAS lost to another producer is retried
+    private long tryClaim() {
+        while (true) {
+            long current = claimed.get();
+            if ((current & SHUTDOWN) != 0) {
+                throw new RejectedExecutionException("ring buffer is shut down");
+            }
+            if (current - dispatched.get() >= slots.length) {
+                return -1;
+            }
+            if (claimed.compareAndSet(current, current + 1)) {
+                return current;
+            }
+        }
+    }
+
+    private void write(long sequence, Key key, Msg msg) {
+        Slot<Key, Msg> slot = slots[(int) sequence & mask];
+        slot.key = key;
+        slot.msg = msg;
+        slot.published = sequence;
+    }
+
+    private void dispatch() {
+        long next = 0;
+        while (true) {
+            Slot<Key, Msg> slot = slots[(int) next & mask];
+            if (slot.published != next) {
+                long current = claimed.get();
+                if ((current & SHUTDOWN) != 0 && (current & ~SHUTDOWN) <= next) {
+                    return;
+                }
+                waitStrategy.idle();
+                continue;
+            }
+            Key key = slot.key;
+            Msg msg = slot.msg;
+            slot.key = null;
+            slot.msg = null;
+            dispatched.lazySet(++next);
+            try {
+                runner.tell(key, msg);
+            } catch (Throwable t) {
+                exceptionHandler.onException(key, t);
+            }
+        }
+    }
+}
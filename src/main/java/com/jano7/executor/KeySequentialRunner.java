@@ -23,23 +23,173 @@ SOFTWARE.
 */
 package com.jano7.executor;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import static com.jano7.executor.Util.checkNotNull;
 
 public final class KeySequentialRunner<Key> {
 
+    private final class Barrier {
+
+        private final AtomicInteger pending;
+        private final Runnable callback;
+
+        Barrier(int keys, Runnable callback) {
+            this.pending = new AtomicInteger(keys + 1);
+            this.callback = callback;
+        }
+
+        void arrive(Key key) {
+            if (pending.decrementAndGet() == 0) {
+                try {
+                    callback.run();
+                } catch (Throwable t) {
+                    exceptionHandler.onException(key, t);
+                }
+            }
+        }
+    }
+
+    private final class BarrierArrival implements Runnable {
+
+        private final Barrier barrier;
+        private final Key key;
+
+        BarrierArrival(Barrier barrier, Key key) {
+            this.barrier = barrier;
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            barrier.arrive(key);
+        }
+    }
+
+    // not generic, so that a queued task can be checked and cast without an unchecked warning
+    private interface MultiKeyArrival extends Runnable {
+
+        void arriveAndExecute();
+    }
+
+    private final class MultiKeyTask implements MultiKeyArrival {
+
+        private final Key key;
+        private final Object group;
+        private final Runnable task;
+        private final List<KeyRunner> runners;
+        private final AtomicInteger pending;
+
+        MultiKeyTask(Key key, Runnable task, int keys) {
+            this.key = key;
+            this.group = groupOf(key);
+            this.task = task;
+            this.runners = new ArrayList<>(keys);
+            this.pending = new AtomicInteger(keys + 1);
+        }
+
+        boolean arrive() {
+            return pending.decrementAndGet() == 0;
+        }
+
+        @Override
+        public void arriveAndExecute() {
+            if (arrive()) {
+                try {
+                    dispatch(group, this);
+                } catch (RejectedExecutionException e) {
+                    // complete the task on this thread when the execution is rejected
+                    runAndResume();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                exceptionHandler.onException(key, t);
+            }
+            finished(task);
+            release(group);
+            resume();
+        }
+
+        void runAndResume() {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                exceptionHandler.onException(key, t);
+            }
+            finished(task);
+            resume();
+        }
+
+        void resume() {
+            for (KeyRunner runner : runners) {
+                runner.runNext();
+            }
+        }
+    }
+
+    private static final class IdempotentTask implements Runnable {
+
+        private final KeyDeduplicator.Window window;
+        private final Object id;
+        private final Runnable task;
+
+        IdempotentTask(KeyDeduplicator.Window window, Object id, Runnable task) {
+            this.window = window;
+            this.id = id;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toString(task);
+        }
+    }
+
     private final class KeyRunner {
 
         private boolean notTriggered = true;
+        private volatile boolean retired = false;
         private final TaskQueue tasks = new TaskQueue();
         private final Key key;
+        private final Object group;
+        private long arrival;
+        private int attempt = 0;
+        private boolean paused = false;
+        private final KeyDeduplicator.Window window;
+        private final int affinity;
 
         KeyRunner(Key key) {
             this.key = key;
+            this.group = groupOf(key);
+            this.arrival = rateLimiter == null ? 0 : rateLimiter.activate(key);
+            this.window = deduplicator == null ? null : deduplicator.activate(key);
+            // a key returning from idle goes to the same worker, unless the worker is overloaded
+            this.affinity = Objects.hashCode(key) & 0x7fffffff;
         }
 
         void enqueue(Runnable task) {
@@ -52,49 +202,172 @@ public final class KeySequentialRunner<Key> {
             if (notTriggered) {
                 Runnable task = tasks.dequeue();
                 if (task == null) {
-                    throw new RejectedExecutionException(rejection());
+                    if (!tasks.isAccepting()) {
+                        throw new RejectedExecutionException(rejection());
+                    }
+                    // the pending tasks have been cancelled before the runner got triggered
+                    synchronized (keyRunners) {
+                        task = tasks.dequeue();
+                        if (task == null) {
+                            retire();
+                        }
+                    }
+                    if (task == null) {
+                        signalIdle();
+                        return;
+                    }
                 }
                 try {
                     run(task);
                     notTriggered = false;
                 } catch (RejectedExecutionException e) {
-                    tasks.rejectNew();
+                    completeOnRejection(task);
+                    for (Runnable dropped : tasks.rejectNew()) {
+                        completeOnRejection(dropped);
+                    }
                     synchronized (keyRunners) {
-                        keyRunners.remove(key);
+                        retire();
                     }
+                    signalIdle();
                     throw new RejectedExecutionException(rejection(), e);
                 }
             }
         }
 
         private void run(Runnable task) {
-            underlyingExecutor.execute(() -> {
-                runSafely(task);
-                Runnable next = tasks.dequeue();
-                if (next == null) {
-                    synchronized (keyRunners) {
-                        next = tasks.dequeue();
-                        if (next == null) {
-                            keyRunners.remove(key);
-                        }
+            if (rateLimiter != null && !(task instanceof KeySequentialRunner.BarrierArrival)) {
+                long delay = rateLimiter.delay(arrival);
+                if (delay > 0) {
+                    // the key is parked without occupying a thread until a permit becomes available
+                    rateLimiter.timer().schedule(() -> runOrComplete(task), delay, TimeUnit.NANOSECONDS);
+                    return;
+                }
+                arrival = rateLimiter.acquire(arrival);
+            }
+            if (task instanceof MultiKeyArrival) {
+                // the key is parked until the task reaches the head of the other keys' queues
+                ((MultiKeyArrival) task).arriveAndExecute();
+            } else {
+                dispatch(group, affinity, () -> {
+                    FailureAction onFailure = runWithPolicy(task);
+                    release(group);
+                    proceed(task, onFailure);
+                });
+            }
+        }
+
+        void runNext() {
+            Runnable next = tasks.dequeue();
+            if (next == null) {
+                synchronized (keyRunners) {
+                    next = tasks.dequeue();
+                    if (next == null) {
+                        retire();
                     }
                 }
-                if (next != null) {
-                    try {
-                        run(next);
-                    } catch (RejectedExecutionException e) {
-                        List<Runnable> accepted = tasks.rejectNew();
-                        // complete the task and the queued ones on this thread when the execution is rejected
-                        runSafely(next);
-                        for (Runnable queued : accepted) {
-                            runSafely(queued);
-                        }
-                        synchronized (keyRunners) {
-                            keyRunners.remove(key);
-                        }
+            }
+            if (next == null) {
+                signalIdle();
+            } else {
+                runOrComplete(next);
+            }
+        }
+
+        private void runOrComplete(Runnable next) {
+            try {
+                run(next);
+            } catch (RejectedExecutionException e) {
+                List<Runnable> accepted = new ArrayList<>();
+                accepted.add(next);
+                accepted.addAll(tasks.rejectNew());
+                // complete the task and the queued ones on this thread when the execution is rejected
+                for (int i = 0; i < accepted.size(); ++i) {
+                    Runnable queued = accepted.get(i);
+                    if (queued instanceof MultiKeyArrival) {
+                        // the rest is completed once the multi-key task has been executed
+                        tasks.requeue(accepted.subList(i + 1, accepted.size()));
+                        ((MultiKeyArrival) queued).arriveAndExecute();
+                        return;
                     }
+                    runSafely(queued);
+                }
+                synchronized (keyRunners) {
+                    retire();
                 }
-            });
+                signalIdle();
+            }
+        }
+
+        private FailureAction runWithPolicy(Runnable task) {
+            try {
+                task.run();
+                attempt = 0;
+                finished(task);
+                return null;
+            } catch (Throwable t) {
+                if (failurePolicy == null) {
+                    exceptionHandler.onException(key, t);
+                    finished(task);
+                    return null;
+                }
+                FailureAction action;
+                try {
+                    action = failurePolicy.onFailure(key, unwrap(task), t, ++attempt);
+                } catch (Throwable policyFailure) {
+                    t.addSuppressed(policyFailure);
+                    action = FailureAction.skip();
+                }
+                if (action.type() != FailureAction.Type.RETRY) {
+                    attempt = 0;
+                }
+                if (action.type() == FailureAction.Type.PAUSE) {
+                    // the failed task stays at the head of the queue until the key is resumed
+                    tasks.requeue(Collections.singletonList(task));
+                    synchronized (this) {
+                        paused = true;
+                    }
+                }
+                if (action.type() == FailureAction.Type.SKIP || action.type() == FailureAction.Type.PAUSE) {
+                    exceptionHandler.onException(key, t);
+                }
+                if (action.type() == FailureAction.Type.SKIP || action.type() == FailureAction.Type.HANDLED) {
+                    finished(task);
+                }
+                return action;
+            }
+        }
+
+        private void proceed(Runnable task, FailureAction onFailure) {
+            if (onFailure == null) {
+                runNext();
+            } else {
+                switch (onFailure.type()) {
+                    case RETRY:
+                        // the key is parked without occupying a thread until the task is retried
+                        failureTimer.schedule(
+                                () -> runOrComplete(task),
+                                onFailure.delayNanos(),
+                                TimeUnit.NANOSECONDS
+                        );
+                        break;
+                    case PAUSE:
+                        break;
+                    default:
+                        runNext();
+                }
+            }
+        }
+
+        synchronized boolean unpause() {
+            if (paused) {
+                paused = false;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized boolean isPaused() {
+            return paused;
         }
 
         private void runSafely(Runnable task) {
@@ -103,6 +376,33 @@ public final class KeySequentialRunner<Key> {
             } catch (Throwable t) {
                 exceptionHandler.onException(key, t);
             }
+            finished(task);
+        }
+
+        private void completeOnRejection(Runnable task) {
+            if (task instanceof KeySequentialRunner.BarrierArrival) {
+                task.run();
+            } else if (task instanceof MultiKeyArrival) {
+                // the other keys must not stay parked, so the task arrives on behalf of this key
+                ((MultiKeyArrival) task).arriveAndExecute();
+            } else {
+                // a rejected task counts as cancelled, e.g. it must not hold back the watermark of its source
+                cancelled(task);
+            }
+        }
+
+        // must be called while holding the keyRunners lock
+        private void retire() {
+            if (keyRunners.remove(key, this)) {
+                --activeKeys;
+                if (rateLimiter != null) {
+                    rateLimiter.retire(key, arrival);
+                }
+                if (deduplicator != null) {
+                    deduplicator.retire(key, window);
+                }
+            }
+            retired = true;
         }
 
         private String rejection() {
@@ -110,19 +410,134 @@ public final class KeySequentialRunner<Key> {
         }
     }
 
+    public static final class Builder<Key> {
+
+        private final Executor underlyingExecutor;
+        private TaskExceptionHandler<Key> exceptionHandler = new TaskExceptionHandler<Key>() {
+        };
+        private Function<? super Key, ?> keyToGroup = null;
+        private int maxGroupConcurrency = 0;
+        private KeyRateLimiter<Key> rateLimiter = null;
+        private FailurePolicy<Key> failurePolicy = null;
+        private TimerWheel failureTimer = null;
+        private KeyDeduplicator<Key> deduplicator = null;
+        private AdaptiveConcurrencyLimit concurrencyLimit = null;
+
+        private Builder(Executor underlyingExecutor) {
+            this.underlyingExecutor = underlyingExecutor;
+        }
+
+        public Builder<Key> exceptionHandler(TaskExceptionHandler<Key> exceptionHandler) {
+            checkNotNull(exceptionHandler, "exceptionHandler");
+            this.exceptionHandler = exceptionHandler;
+            return this;
+        }
+
+        public Builder<Key> groups(Function<? super Key, ?> keyToGroup, int maxGroupConcurrency) {
+            checkNotNull(keyToGroup, "keyToGroup");
+            if (maxGroupConcurrency < 1) {
+                throw new IllegalArgumentException("maxGroupConcurrency must be positive");
+            }
+            this.keyToGroup = keyToGroup;
+            this.maxGroupConcurrency = maxGroupConcurrency;
+            return this;
+        }
+
+        public Builder<Key> rateLimit(int permits, long period, TimeUnit unit) {
+            return rateLimit(permits, period, unit, TimerWheel.shared());
+        }
+
+        public Builder<Key> rateLimit(int permits, long period, TimeUnit unit, TimerWheel timer) {
+            checkNotNull(unit, "unit");
+            checkNotNull(timer, "timer");
+            this.rateLimiter = new KeyRateLimiter<>(permits, period, unit, timer);
+            return this;
+        }
+
+        public Builder<Key> failurePolicy(FailurePolicy<Key> failurePolicy) {
+            return failurePolicy(failurePolicy, TimerWheel.shared());
+        }
+
+        public Builder<Key> failurePolicy(FailurePolicy<Key> failurePolicy, TimerWheel timer) {
+            checkNotNull(failurePolicy, "failurePolicy");
+            checkNotNull(timer, "timer");
+            this.failurePolicy = failurePolicy;
+            this.failureTimer = timer;
+            return this;
+        }
+
+        public Builder<Key> deduplicate(int window, long retention, TimeUnit unit) {
+            return deduplicate(window, retention, unit, TimerWheel.shared());
+        }
+
+        public Builder<Key> deduplicate(int window, long retention, TimeUnit unit, TimerWheel timer) {
+            checkNotNull(unit, "unit");
+            checkNotNull(timer, "timer");
+            this.deduplicator = new KeyDeduplicator<>(window, retention, unit, timer);
+            return this;
+        }
+
+        // the keys over the limit wait in the runner without occupying a thread of the underlying executor
+        public Builder<Key> concurrencyLimit(AdaptiveConcurrencyLimit concurrencyLimit) {
+            checkNotNull(concurrencyLimit, "concurrencyLimit");
+            this.concurrencyLimit = concurrencyLimit;
+            return this;
+        }
+
+        public KeySequentialRunner<Key> build() {
+            return new KeySequentialRunner<>(this);
+        }
+    }
+
     private final Executor underlyingExecutor;
+    private final AffinityExecutor affinityExecutor;
+    private final ForkJoinPool forkJoinPool;
     private final TaskExceptionHandler<Key> exceptionHandler;
+    private final Function<? super Key, ?> keyToGroup;
+    private final Executor limitedExecutor;
+    private final GroupLimiter groupLimiter;
+    private final KeyRateLimiter<Key> rateLimiter;
+    private final FailurePolicy<Key> failurePolicy;
+    private final TimerWheel failureTimer;
+    private final KeyDeduplicator<Key> deduplicator;
     private final HashMap<Key, KeyRunner> keyRunners = new HashMap<>();
+    private volatile int activeKeys = 0;
+    private final Object idle = new Object();
+    private final AtomicInteger idleWaiters = new AtomicInteger(0);
 
     public KeySequentialRunner(Executor underlyingExecutor) {
-        this.underlyingExecutor = underlyingExecutor;
-        this.exceptionHandler = new TaskExceptionHandler<Key>() {
-        };
+        this(new Builder<>(underlyingExecutor));
     }
 
     public KeySequentialRunner(Executor underlyingExecutor, TaskExceptionHandler<Key> exceptionHandler) {
-        this.underlyingExecutor = underlyingExecutor;
-        this.exceptionHandler = exceptionHandler;
+        this(new Builder<Key>(underlyingExecutor).exceptionHandler(exceptionHandler));
+    }
+
+    private KeySequentialRunner(Builder<Key> builder) {
+        this.underlyingExecutor = builder.underlyingExecutor;
+        this.affinityExecutor = underlyingExecutor instanceof AffinityExecutor ?
+                (AffinityExecutor) underlyingExecutor :
+                null;
+        this.forkJoinPool = underlyingExecutor instanceof ForkJoinPool ? (ForkJoinPool) underlyingExecutor : null;
+        this.exceptionHandler = builder.exceptionHandler;
+        this.keyToGroup = builder.keyToGroup;
+        this.limitedExecutor = builder.concurrencyLimit == null ?
+                null :
+                builder.concurrencyLimit.limiting(builder.underlyingExecutor);
+        this.groupLimiter = keyToGroup == null ?
+                null :
+                new GroupLimiter(
+                        builder.maxGroupConcurrency,
+                        limitedExecutor == null ? builder.underlyingExecutor : limitedExecutor
+                );
+        this.rateLimiter = builder.rateLimiter;
+        this.failurePolicy = builder.failurePolicy;
+        this.failureTimer = builder.failureTimer;
+        this.deduplicator = builder.deduplicator;
+    }
+
+    public static <Key> Builder<Key> builder(Executor underlyingExecutor) {
+        return new Builder<>(underlyingExecutor);
     }
 
     public void run(Key key, Runnable task) {
@@ -133,9 +548,248 @@ public final class KeySequentialRunner<Key> {
             if (runner == null) {
                 runner = new KeyRunner(key);
                 keyRunners.put(key, runner);
+                ++activeKeys;
             }
             runner.enqueue(task);
         }
         runner.triggerRun();
     }
+
+    // returns false if a task with the same idempotency ID is pending or has recently completed for the key
+    public boolean run(Key key, Object idempotencyId, Runnable task) {
+        checkNotNull(task);
+        checkNotNull(idempotencyId, "idempotencyId");
+        if (deduplicator == null) {
+            throw new IllegalStateException("deduplication is not enabled");
+        }
+        KeyRunner runner;
+        synchronized (keyRunners) {
+            runner = keyRunners.get(key);
+            if (runner == null) {
+                runner = new KeyRunner(key);
+                keyRunners.put(key, runner);
+                ++activeKeys;
+            }
+            if (!runner.window.admit(idempotencyId)) {
+                return false;
+            }
+            try {
+                runner.enqueue(new IdempotentTask(runner.window, idempotencyId, task));
+            } catch (RejectedExecutionException e) {
+                runner.window.forget(idempotencyId);
+                throw e;
+            }
+        }
+        runner.triggerRun();
+        return true;
+    }
+
+    public void run(Set<Key> keys, Runnable task) {
+        checkNotNull(task);
+        checkNotNull(keys, "keys");
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("no keys");
+        }
+        if (keys.size() == 1) {
+            run(keys.iterator().next(), task);
+            return;
+        }
+        MultiKeyTask multiKeyTask = new MultiKeyTask(keys.iterator().next(), task, keys.size());
+        // enqueueing for all keys under the same lock orders the multi-key tasks consistently across the queues
+        synchronized (keyRunners) {
+            for (Key key : keys) {
+                KeyRunner runner = keyRunners.get(key);
+                if (runner != null && !runner.tasks.isAccepting()) {
+                    throw new RejectedExecutionException(runner.rejection());
+                }
+            }
+            for (Key key : keys) {
+                KeyRunner runner = keyRunners.get(key);
+                if (runner == null) {
+                    runner = new KeyRunner(key);
+                    keyRunners.put(key, runner);
+                    ++activeKeys;
+                }
+                if (runner.tasks.enqueue(multiKeyTask)) {
+                    multiKeyTask.runners.add(runner);
+                } else {
+                    multiKeyTask.arrive();
+                }
+            }
+        }
+        for (KeyRunner runner : multiKeyTask.runners) {
+            try {
+                runner.triggerRun();
+            } catch (RejectedExecutionException ignored) {
+                // the rejecting runner has arrived on behalf of its key
+            }
+        }
+        if (multiKeyTask.arrive()) {
+            try {
+                dispatch(multiKeyTask.group, multiKeyTask);
+            } catch (RejectedExecutionException e) {
+                multiKeyTask.resume();
+                throw new RejectedExecutionException("task for the keys " + keys + " rejected", e);
+            }
+        }
+    }
+
+    public List<Runnable> cancelPending(Key key) {
+        return cancelIf(key, task -> true);
+    }
+
+    public List<Runnable> cancelIf(Key key, Predicate<Runnable> predicate) {
+        checkNotNull(predicate, "predicate");
+        List<Runnable> removed;
+        synchronized (keyRunners) {
+            KeyRunner runner = keyRunners.get(key);
+            removed = runner == null ?
+                    Collections.emptyList() :
+                    runner.tasks.removeIf(task -> !(task instanceof KeySequentialRunner.BarrierArrival) &&
+                            !(task instanceof MultiKeyArrival) &&
+                            predicate.test(unwrap(task)));
+        }
+        List<Runnable> cancelled = new ArrayList<>(removed.size());
+        for (Runnable task : removed) {
+            cancelled(task);
+            cancelled.add(unwrap(task));
+        }
+        return cancelled;
+    }
+
+    public void barrier(Runnable callback) {
+        checkNotNull(callback, "callback");
+        Barrier barrier;
+        synchronized (keyRunners) {
+            barrier = new Barrier(keyRunners.size(), callback);
+            // every registered runner is either running or about to be triggered by its submitter
+            for (KeyRunner runner : keyRunners.values()) {
+                Runnable arrival = new BarrierArrival(barrier, runner.key);
+                if (!runner.tasks.enqueue(arrival)) {
+                    arrival.run();
+                }
+            }
+        }
+        barrier.arrive(null);
+    }
+
+    public boolean resume(Key key) {
+        KeyRunner runner;
+        synchronized (keyRunners) {
+            runner = keyRunners.get(key);
+        }
+        if (runner != null && runner.unpause()) {
+            runner.runNext();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isPaused(Key key) {
+        KeyRunner runner;
+        synchronized (keyRunners) {
+            runner = keyRunners.get(key);
+        }
+        return runner != null && runner.isPaused();
+    }
+
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+        return awaitIdle(() -> activeKeys == 0, timeout, unit);
+    }
+
+    public boolean drain(Key key, long timeout, TimeUnit unit) throws InterruptedException {
+        KeyRunner runner;
+        synchronized (keyRunners) {
+            runner = keyRunners.get(key);
+        }
+        return runner == null || awaitIdle(() -> runner.retired, timeout, unit);
+    }
+
+    private Object groupOf(Key key) {
+        return keyToGroup == null ? null : keyToGroup.apply(key);
+    }
+
+    private void dispatch(Object group, Runnable command) {
+        dispatch(group, -1, command);
+    }
+
+    private void dispatch(Object group, int affinity, Runnable command) {
+        if (groupLimiter != null) {
+            groupLimiter.execute(group, command);
+        } else if (limitedExecutor != null) {
+            limitedExecutor.execute(command);
+        } else if (affinityExecutor != null) {
+            affinityExecutor.execute(command, affinity);
+        } else if (forkJoinPool != null && ForkJoinTask.getPool() == forkJoinPool) {
+            // a continuation on a worker of the pool is forked to the worker's own queue
+            ForkJoinTask.adapt(command).fork();
+        } else {
+            underlyingExecutor.execute(command);
+        }
+    }
+
+    private void release(Object group) {
+        if (groupLimiter != null) {
+            groupLimiter.release(group);
+        }
+    }
+
+    // the task as submitted, without the wrapper added for the deduplication
+    private static Runnable unwrap(Runnable task) {
+        return task instanceof IdempotentTask ? ((IdempotentTask) task).task : task;
+    }
+
+    private static void finished(Runnable task) {
+        if (task instanceof IdempotentTask) {
+            IdempotentTask idempotentTask = (IdempotentTask) task;
+            idempotentTask.window.completed(idempotentTask.id);
+            finished(idempotentTask.task);
+        } else if (task instanceof WatermarkTracker.TrackedTask) {
+            ((WatermarkTracker.TrackedTask) task).complete();
+        }
+    }
+
+    private static void cancelled(Runnable task) {
+        if (task instanceof IdempotentTask) {
+            // a retransmission of a cancelled task is not a duplicate
+            IdempotentTask idempotentTask = (IdempotentTask) task;
+            idempotentTask.window.forget(idempotentTask.id);
+            cancelled(idempotentTask.task);
+        } else if (task instanceof WatermarkTracker.TrackedTask) {
+            // a cancelled task must not hold back the watermark of its source
+            ((WatermarkTracker.TrackedTask) task).complete();
+        }
+    }
+
+    private boolean awaitIdle(BooleanSupplier isIdle, long timeout, TimeUnit unit) throws InterruptedException {
+        if (isIdle.getAsBoolean()) {
+            return true;
+        }
+        idleWaiters.incrementAndGet();
+        try {
+            synchronized (idle) {
+                long remaining = unit.toNanos(timeout);
+                long deadline = System.nanoTime() + remaining;
+                while (!isIdle.getAsBoolean()) {
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(idle, remaining);
+                    remaining = deadline - System.nanoTime();
+                }
+                return true;
+            }
+        } finally {
+            idleWaiters.decrementAndGet();
+        }
+    }
+
+    private void signalIdle() {
+        // the lock is taken only if there is somebody waiting for a key to retire
+        if (idleWaiters.get() > 0) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
 }
@@ -0,0 +1,127 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+public final class KeySequentialScheduledRunner<Key> {
+
+    public final class ScheduledTask {
+
+        private final Key key;
+        private final Runnable task;
+        private final long period;
+        private final Runnable enqueued = this::runInSequence;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private volatile TimerWheel.Timeout timeout;
+
+        private ScheduledTask(Key key, Runnable task, long period) {
+            this.key = key;
+            this.task = task;
+            this.period = period;
+        }
+
+        public boolean cancel() {
+            if (done.compareAndSet(false, true)) {
+                if (!timeout.cancel()) {
+                    runner.cancelIf(key, queued -> queued == enqueued);
+                }
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isDone() {
+            return done.get();
+        }
+
+        private void schedule(long delay) {
+            timeout = timer.schedule(this::enqueue, delay, TimeUnit.NANOSECONDS);
+            if (done.get()) {
+                timeout.cancel();
+            }
+        }
+
+        private void enqueue() {
+            try {
+                runner.run(key, enqueued);
+            } catch (RejectedExecutionException e) {
+                done.set(true);
+            }
+        }
+
+        private void runInSequence() {
+            if (period == 0) {
+                if (done.compareAndSet(false, true)) {
+                    task.run();
+                }
+            } else if (!done.get()) {
+                try {
+                    task.run();
+                } finally {
+                    if (!done.get()) {
+                        schedule(period);
+                    }
+                }
+            }
+        }
+    }
+
+    private final KeySequentialRunner<Key> runner;
+    private final TimerWheel timer;
+
+    public KeySequentialScheduledRunner(KeySequentialRunner<Key> runner) {
+        this(runner, TimerWheel.shared());
+    }
+
+    public KeySequentialScheduledRunner(KeySequentialRunner<Key> runner, TimerWheel timer) {
+        this.runner = runner;
+        this.timer = timer;
+    }
+
+    public void run(Key key, Runnable task) {
+        runner.run(key, task);
+    }
+
+    public ScheduledTask schedule(Key key, Runnable task, long delay, TimeUnit unit) {
+        checkNotNull(task);
+        ScheduledTask scheduled = new ScheduledTask(key, task, 0);
+        scheduled.schedule(unit.toNanos(delay));
+        return scheduled;
+    }
+
+    public ScheduledTask scheduleWithFixedDelay(Key key, Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        checkNotNull(task);
+        if (delay <= 0) {
+            throw new IllegalArgumentException("delay must be positive");
+        }
+        ScheduledTask scheduled = new ScheduledTask(key, task, unit.toNanos(delay));
+        scheduled.schedule(unit.toNanos(initialDelay));
+        return scheduled;
+    }
+}
@@ -0,0 +1,343 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+public final class KeySequentialStatefulRunner<Key, State> {
+
+    public static final class Builder<Key, State> {
+
+        private final Executor underlyingExecutor;
+        private final Function<? super Key, ? extends State> loader;
+        private BiConsumer<? super Key, ? super State> writeBack = (key, state) -> {
+        };
+        private TaskExceptionHandler<Key> exceptionHandler = new TaskExceptionHandler<Key>() {
+        };
+        private long idleTimeout = 0;
+        private TimerWheel timer = null;
+        private int maxIdleKeys = Integer.MAX_VALUE;
+
+        private Builder(Executor underlyingExecutor, Function<? super Key, ? extends State> loader) {
+            checkNotNull(loader, "loader");
+            this.underlyingExecutor = underlyingExecutor;
+            this.loader = loader;
+        }
+
+        public Builder<Key, State> writeBack(BiConsumer<? super Key, ? super State> writeBack) {
+            checkNotNull(writeBack, "writeBack");
+            this.writeBack = writeBack;
+            return this;
+        }
+
+        public Builder<Key, State> exceptionHandler(TaskExceptionHandler<Key> exceptionHandler) {
+            checkNotNull(exceptionHandler, "exceptionHandler");
+            this.exceptionHandler = exceptionHandler;
+            return this;
+        }
+
+        public Builder<Key, State> expireAfterIdle(long idleTimeout, TimeUnit unit) {
+            return expireAfterIdle(idleTimeout, unit, TimerWheel.shared());
+        }
+
+        public Builder<Key, State> expireAfterIdle(long idleTimeout, TimeUnit unit, TimerWheel timer) {
+            checkNotNull(unit, "unit");
+            checkNotNull(timer, "timer");
+            if (idleTimeout <= 0) {
+                throw new IllegalArgumentException("idleTimeout must be positive");
+            }
+            this.idleTimeout = unit.toNanos(idleTimeout);
+            this.timer = timer;
+            return this;
+        }
+
+        public Builder<Key, State> maxIdleKeys(int maxIdleKeys) {
+            if (maxIdleKeys < 0) {
+                throw new IllegalArgumentException("maxIdleKeys must not be negative");
+            }
+            this.maxIdleKeys = maxIdleKeys;
+            return this;
+        }
+
+        public KeySequentialStatefulRunner<Key, State> build() {
+            return new KeySequentialStatefulRunner<>(this);
+        }
+    }
+
+    // a key's tasks and its state live in the same slot, so that one lookup finds both
+    private final class Slot implements Runnable {
+
+        private final Key key;
+        // guarded by the slot's lock, which is taken after the slots lock when both are needed
+        private final ArrayDeque<UnaryOperator<State>> tasks = new ArrayDeque<>();
+        private boolean running = false;
+        private State state;
+        private boolean loaded = false;
+        // the fields below are guarded by the slots lock
+        private boolean evicting = false;
+        private TimerWheel.Timeout idleTimeout;
+
+        Slot(Key key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            if (evicting && !writeBack()) {
+                return;
+            }
+            for (int processed = 0; processed < THROUGHPUT; ++processed) {
+                UnaryOperator<State> task = next();
+                if (task == null) {
+                    return;
+                }
+                runTask(task);
+            }
+            try {
+                // yield the thread to the other keys
+                underlyingExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                completeOnRejection();
+            }
+        }
+
+        void completeOnRejection() {
+            if (evicting && !writeBack()) {
+                return;
+            }
+            while (true) {
+                UnaryOperator<State> task = next();
+                if (task == null) {
+                    return;
+                }
+                runTask(task);
+            }
+        }
+
+        // returns the next task, or null when the slot has gone idle; the slots lock is taken only to go idle
+        private UnaryOperator<State> next() {
+            synchronized (this) {
+                UnaryOperator<State> task = tasks.poll();
+                if (task != null) {
+                    return task;
+                }
+            }
+            Slot evicted;
+            synchronized (slots) {
+                synchronized (this) {
+                    // a task may have been submitted meanwhile
+                    UnaryOperator<State> task = tasks.poll();
+                    if (task != null) {
+                        return task;
+                    }
+                    evicted = idle(this);
+                }
+            }
+            evict(evicted);
+            return null;
+        }
+
+        private void runTask(UnaryOperator<State> task) {
+            try {
+                if (!loaded) {
+                    state = loader.apply(key);
+                    loaded = true;
+                }
+                state = task.apply(state);
+            } catch (Throwable t) {
+                exceptionHandler.onException(key, t);
+            }
+        }
+
+        // returns true if the tasks submitted during the write-back are to be run with the retained state
+        private boolean writeBack() {
+            if (loaded) {
+                try {
+                    KeySequentialStatefulRunner.this.writeBack.accept(key, state);
+                } catch (Throwable t) {
+                    exceptionHandler.onException(key, t);
+                }
+            }
+            synchronized (slots) {
+                evicting = false;
+                synchronized (this) {
+                    if (tasks.isEmpty()) {
+                        running = false;
+                        slots.remove(key, this);
+                        return false;
+                    }
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static final int THROUGHPUT = 64;
+
+    private final Executor underlyingExecutor;
+    private final Function<? super Key, ? extends State> loader;
+    private final BiConsumer<? super Key, ? super State> writeBack;
+    private final TaskExceptionHandler<Key> exceptionHandler;
+    private final long idleTimeout;
+    private final TimerWheel timer;
+    private final int maxIdleKeys;
+    private final HashMap<Key, Slot> slots = new HashMap<>();
+    private final LinkedHashMap<Key, Slot> idleSlots = new LinkedHashMap<>(); // the least recently used first
+
+    private KeySequentialStatefulRunner(Builder<Key, State> builder) {
+        this.underlyingExecutor = builder.underlyingExecutor;
+        this.loader = builder.loader;
+        this.writeBack = builder.writeBack;
+        this.exceptionHandler = builder.exceptionHandler;
+        this.idleTimeout = builder.idleTimeout;
+        this.timer = builder.timer;
+        this.maxIdleKeys = builder.maxIdleKeys;
+    }
+
+    public static <Key, State> Builder<Key, State> builder(Executor underlyingExecutor,
+                                                           Function<? super Key, ? extends State> loader) {
+        return new Builder<>(underlyingExecutor, loader);
+    }
+
+    public void run(Key key, Consumer<? super State> task) {
+        checkNotNull(task, "task");
+        update(key, state -> {
+            task.accept(state);
+            return state;
+        });
+    }
+
+    public void update(Key key, UnaryOperator<State> task) {
+        checkNotNull(task, "task");
+        Slot slot;
+        synchronized (slots) {
+            slot = slots.get(key);
+            if (slot == null) {
+                slot = new Slot(key);
+                slots.put(key, slot);
+            }
+            synchronized (slot) {
+                slot.tasks.offer(task);
+                if (slot.running) {
+                    return;
+                }
+                slot.running = true;
+            }
+            activate(slot);
+        }
+        try {
+            underlyingExecutor.execute(slot);
+        } catch (RejectedExecutionException e) {
+            // the rejected task is the first one, the tasks submitted meanwhile are completed on this thread
+            synchronized (slot) {
+                slot.tasks.poll();
+            }
+            slot.completeOnRejection();
+            throw new RejectedExecutionException("task for the key '" + key + "' rejected", e);
+        }
+    }
+
+    public int size() {
+        synchronized (slots) {
+            return slots.size();
+        }
+    }
+
+    // must be called while holding the slots lock
+    private void activate(Slot slot) {
+        idleSlots.remove(slot.key);
+        if (slot.idleTimeout != null) {
+            slot.idleTimeout.cancel();
+            slot.idleTimeout = null;
+        }
+    }
+
+    // must be called while holding the slots lock and the slot's lock, returns a slot to be evicted
+    private Slot idle(Slot slot) {
+        slot.running = false;
+        if (maxIdleKeys == 0) {
+            return startEviction(slot);
+        }
+        idleSlots.put(slot.key, slot);
+        if (idleTimeout > 0) {
+            slot.idleTimeout = timer.schedule(() -> expire(slot), idleTimeout, TimeUnit.NANOSECONDS);
+        }
+        if (idleSlots.size() > maxIdleKeys) {
+            Iterator<Slot> eldest = idleSlots.values().iterator();
+            Slot evicted = eldest.next();
+            eldest.remove();
+            if (evicted.idleTimeout != null) {
+                evicted.idleTimeout.cancel();
+                evicted.idleTimeout = null;
+            }
+            return startEviction(evicted);
+        }
+        return null;
+    }
+
+    private void expire(Slot slot) {
+        synchronized (slots) {
+            // an idle slot is activated under the slots lock, so it is not running while in the idle ones
+            if (!idleSlots.remove(slot.key, slot)) {
+                return;
+            }
+            slot.idleTimeout = null;
+            startEviction(slot);
+        }
+        evict(slot);
+    }
+
+    // must be called while holding the slots lock
+    private Slot startEviction(Slot slot) {
+        // the slot stays registered until written back, so that the state cannot be reloaded before it is stored
+        synchronized (slot) {
+            slot.running = true;
+        }
+        slot.evicting = true;
+        return slot;
+    }
+
+    private void evict(Slot slot) {
+        if (slot != null) {
+            try {
+                underlyingExecutor.execute(slot);
+            } catch (RejectedExecutionException e) {
+                // write the state back on this thread when the execution is rejected
+                slot.completeOnRejection();
+            }
+        }
+    }
+}
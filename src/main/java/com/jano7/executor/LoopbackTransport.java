@@ -0,0 +1,73 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+// delivers the signals within the JVM by calling the receivers directly, e.g. for testing
+public final class LoopbackTransport<Key, Msg> implements PartitionTransport<Key, Msg> {
+
+    private final ConcurrentHashMap<String, Receiver<Key, Msg>> receivers = new ConcurrentHashMap<>();
+
+    @Override
+    public void bind(String node, Receiver<Key, Msg> receiver) {
+        if (receivers.putIfAbsent(node, receiver) != null) {
+            throw new IllegalArgumentException("node '" + node + "' already bound");
+        }
+    }
+
+    @Override
+    public void unbind(String node) {
+        receivers.remove(node);
+    }
+
+    @Override
+    public Receiver<Key, Msg> connect(String node) {
+        return new Receiver<Key, Msg>() {
+            @Override
+            public void onMessage(long epoch, Key key, Msg msg) {
+                receiver().onMessage(epoch, key, msg);
+            }
+
+            @Override
+            public void onHandover(String from, Key key) {
+                receiver().onHandover(from, key);
+            }
+
+            @Override
+            public void onHandoverComplete(String from, long epoch) {
+                receiver().onHandoverComplete(from, epoch);
+            }
+
+            private Receiver<Key, Msg> receiver() {
+                Receiver<Key, Msg> receiver = receivers.get(node);
+                if (receiver == null) {
+                    throw new RejectedExecutionException("node '" + node + "' not bound");
+                }
+                return receiver;
+            }
+        };
+    }
+}
@@ -0,0 +1,123 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+// lets a ForkJoinPool compensate for its workers blocked in long or blocking tasks
+public final class ManagedBlocking {
+
+    private static final class TaskBlocker implements ForkJoinPool.ManagedBlocker {
+
+        private final Runnable task;
+        private boolean done = false;
+
+        TaskBlocker(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public boolean block() {
+            if (!done) {
+                done = true;
+                task.run();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+    }
+
+    private static final class SemaphoreBlocker implements ForkJoinPool.ManagedBlocker {
+
+        private final Semaphore semaphore;
+        private boolean acquired = false;
+
+        SemaphoreBlocker(Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (!acquired) {
+                semaphore.acquire();
+                acquired = true;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return acquired || (acquired = semaphore.tryAcquire());
+        }
+    }
+
+    private ManagedBlocking() {
+    }
+
+    public static Runnable wrap(Runnable task) {
+        checkNotNull(task);
+        return () -> run(task);
+    }
+
+    public static void run(Runnable task) {
+        checkNotNull(task);
+        if (!ForkJoinTask.inForkJoinPool()) {
+            task.run();
+            return;
+        }
+        TaskBlocker blocker = new TaskBlocker(task);
+        managedBlock(blocker);
+    }
+
+    static void acquireUninterruptibly(Semaphore semaphore) {
+        if (!ForkJoinTask.inForkJoinPool()) {
+            semaphore.acquireUninterruptibly();
+            return;
+        }
+        managedBlock(new SemaphoreBlocker(semaphore));
+    }
+
+    private static void managedBlock(ForkJoinPool.ManagedBlocker blocker) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                ForkJoinPool.managedBlock(blocker);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
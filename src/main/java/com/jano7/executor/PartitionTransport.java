@@ -0,0 +1,47 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+// delivers the messages and the handover signals of a KeySequentialPartitionedRunner to the other nodes
+public interface PartitionTransport<Key, Msg> {
+
+    interface Receiver<Key, Msg> {
+
+        // the epoch of the membership the sender routed the message by
+        void onMessage(long epoch, Key key, Msg msg);
+
+        // the sender has processed all its messages of the key which now belongs to the receiver
+        void onHandover(String from, Key key);
+
+        // the sender has handed over all the keys it lost up to the epoch
+        void onHandoverComplete(String from, long epoch);
+    }
+
+    void bind(String node, Receiver<Key, Msg> receiver);
+
+    void unbind(String node);
+
+    // the signals sent by a thread to a node must be delivered in the order they are sent
+    Receiver<Key, Msg> connect(String node);
+}
@@ -28,6 +28,6 @@ import java.util.concurrent.ExecutionException;
 public interface TaskExceptionHandler<Key> {
 
     default void onException(Key key, Throwable cause) {
-        new ExecutionException("exception thrown by a task for the key '" + key + "'", cause).printStackTrace();
+        AsyncExceptionLogger.log(new ExecutionException("exception thrown by a task for the key '" + key + "'", cause));
     }
 }
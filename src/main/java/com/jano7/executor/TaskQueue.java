@@ -24,8 +24,10 @@ SOFTWARE.
 package com.jano7.executor;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Predicate;
 
 class TaskQueue {
 
@@ -43,6 +45,27 @@ class TaskQueue {
         return tasks.poll();
     }
 
+    synchronized List<Runnable> removeIf(Predicate<Runnable> predicate) {
+        List<Runnable> removed = new ArrayList<>();
+        Iterator<Runnable> iterator = tasks.iterator();
+        while (iterator.hasNext()) {
+            Runnable task = iterator.next();
+            if (predicate.test(task)) {
+                iterator.remove();
+                removed.add(task);
+            }
+        }
+        return removed;
+    }
+
+    synchronized void requeue(List<Runnable> queued) {
+        tasks.addAll(0, queued);
+    }
+
+    synchronized boolean isAccepting() {
+        return accept;
+    }
+
     synchronized List<Runnable> rejectNew() {
         List<Runnable> queued = new ArrayList<>(tasks);
         tasks.clear();
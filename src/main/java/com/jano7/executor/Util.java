@@ -30,4 +30,10 @@ class Util {
             throw new NullPointerException("task is null");
         }
     }
+
+    static void checkNotNull(Object argument, String name) {
+        if (argument == null) {
+            throw new NullPointerException(name + " is null");
+        }
+    }
 }
@@ -0,0 +1,214 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+import static com.jano7.executor.Util.checkNotNull;
+
+public final class WatermarkTracker<Partition> {
+
+    static final class TrackedTask implements Runnable {
+
+        private final Offsets offsets;
+        private final long position;
+        private final Runnable task;
+
+        TrackedTask(Offsets offsets, long position, Runnable task) {
+            this.offsets = offsets;
+            this.position = position;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        void complete() {
+            offsets.complete(position);
+        }
+
+        @Override
+        public String toString() {
+            return task.toString();
+        }
+    }
+
+    // the first position after a gap in the offsets too large to be filled in
+    private static final class Jump {
+
+        private final long position;
+        private final long offset;
+
+        Jump(long position, long offset) {
+            this.position = position;
+            this.offset = offset;
+        }
+    }
+
+    // the offsets are given consecutive positions, so that a gap in the offsets does not take any space
+    private static final class Offsets {
+
+        private static final int MAX_FILLED_GAP = 64; // the larger gaps are recorded as jumps
+
+        private long[] completed; // a ring of bits starting at the word holding the base position
+        private long base = 0; // the lowest position which has not been completed yet
+        private long next = 0; // the position of the next tracked offset
+        private long lastTracked;
+        private Jump segment; // the jump the base position follows
+        private final ArrayDeque<Jump> jumps = new ArrayDeque<>(); // the jumps after the base position
+
+        Offsets(long firstOffset, int initialCapacity) {
+            this.completed = new long[initialCapacity >>> 6];
+            this.lastTracked = firstOffset - 1;
+            this.segment = new Jump(0, firstOffset);
+        }
+
+        synchronized long track(long offset) {
+            if (offset <= lastTracked) {
+                throw new IllegalArgumentException("offset " + offset + " is not greater than " + lastTracked);
+            }
+            long gap = offset - lastTracked - 1;
+            if (gap > 0 && base == next) {
+                // nothing is pending, the skipped offsets are just passed
+                segment = new Jump(next, offset);
+            } else if (gap > MAX_FILLED_GAP) {
+                jumps.offer(new Jump(next, offset));
+            } else {
+                // offsets skipped by the source (e.g. compacted ones) are not waited for
+                reserve(next + gap);
+                for (long i = 0; i < gap; ++i) {
+                    set(next++);
+                }
+            }
+            reserve(next);
+            lastTracked = offset;
+            advance();
+            return next++;
+        }
+
+        synchronized void complete(long position) {
+            if (position >= base && position < next) {
+                set(position);
+                advance();
+            }
+        }
+
+        synchronized long watermark() {
+            // the offset of the base position is the lowest one which has not been completed yet
+            return base == next ? lastTracked : segment.offset + (base - segment.position) - 1;
+        }
+
+        private void advance() {
+            while (base < next) {
+                int word = word(base);
+                if ((base & 63) == 0 && completed[word] == -1L && base + 64 <= next) {
+                    completed[word] = 0;
+                    base += 64;
+                } else if ((completed[word] & bit(base)) != 0) {
+                    completed[word] &= ~bit(base);
+                    ++base;
+                } else {
+                    break;
+                }
+            }
+            while (!jumps.isEmpty() && jumps.peek().position <= base) {
+                segment = jumps.poll();
+            }
+        }
+
+        private void set(long position) {
+            completed[word(position)] |= bit(position);
+        }
+
+        private void reserve(long position) {
+            while (position - (base & ~63L) >= capacity()) {
+                grow();
+            }
+        }
+
+        private void grow() {
+            long[] grown = new long[completed.length << 1];
+            for (long from = base & ~63L; from < next; from += 64) {
+                grown[(int) ((from >>> 6) & (grown.length - 1))] = completed[word(from)];
+            }
+            completed = grown;
+        }
+
+        private long capacity() {
+            return (long) completed.length << 6;
+        }
+
+        private int word(long position) {
+            return (int) ((position >>> 6) & (completed.length - 1));
+        }
+
+        private static long bit(long position) {
+            return 1L << (position & 63);
+        }
+    }
+
+    private final int initialCapacity;
+    private final HashMap<Partition, Offsets> partitions = new HashMap<>();
+
+    public WatermarkTracker() {
+        this(1024);
+    }
+
+    public WatermarkTracker(int initialCapacity) {
+        if (initialCapacity < 64 || Integer.bitCount(initialCapacity) != 1) {
+            throw new IllegalArgumentException("initialCapacity must be a power of two of at least 64");
+        }
+        this.initialCapacity = initialCapacity;
+    }
+
+    public Runnable track(Partition partition, long offset, Runnable task) {
+        checkNotNull(task);
+        Offsets offsets;
+        synchronized (partitions) {
+            offsets = partitions.get(partition);
+            if (offsets == null) {
+                offsets = new Offsets(offset, initialCapacity);
+                partitions.put(partition, offsets);
+            }
+        }
+        return new TrackedTask(offsets, offsets.track(offset), task);
+    }
+
+    public long watermark(Partition partition) {
+        Offsets offsets;
+        synchronized (partitions) {
+            offsets = partitions.get(partition);
+        }
+        return offsets == null ? -1 : offsets.watermark();
+    }
+
+    public void remove(Partition partition) {
+        synchronized (partitions) {
+            partitions.remove(partition);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.jano7.executor;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void growWhileLatencySteady() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100);
+        for (int i = 0; i < 500; ++i) {
+            limit.sample(10 * MILLIS, limit.limit());
+        }
+        assertEquals(100, limit.limit());
+        assertEquals(10, limit.baselineLatency(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shrinkWhenLatencyGrows() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(50, 5, 100);
+        for (int i = 0; i < 20; ++i) {
+            limit.sample(10 * MILLIS, limit.limit());
+        }
+        int steady = limit.limit();
+        for (int i = 0; i < 20; ++i) {
+            limit.sample(100 * MILLIS, limit.limit()); // the downstream is overloaded
+        }
+        assertTrue(limit.limit() < steady / 2);
+        assertEquals(100, limit.latency(TimeUnit.MILLISECONDS));
+        for (int i = 0; i < 200; ++i) {
+            limit.sample(100 * MILLIS, limit.limit());
+        }
+        // the baseline catches up with a lasting change of the latency
+        assertTrue(limit.limit() > 5);
+    }
+
+    @Test
+    public void notGrowingWhenUnderused() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 1, 100);
+        for (int i = 0; i < 50; ++i) {
+            limit.sample(10 * MILLIS, 2);
+        }
+        assertEquals(20, limit.limit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLimits() {
+        new AdaptiveConcurrencyLimit(10, 20, 100);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void limitNotShared() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100);
+        KeySequentialRunner.<String>builder(Runnable::run).concurrencyLimit(limit).build();
+        KeySequentialRunner.<String>builder(Runnable::run).concurrencyLimit(limit).build();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// not a unit test, run the main method with the test classpath on a multi-core machine
+public class AffinityBenchmark {
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int KEYS = THREADS * 4;
+    private static final int TASKS_PER_KEY = 2000;
+    private static final int ROUNDS = 5;
+    // from fitting into L1 to exceeding L2
+    private static final int[] STATE_SIZES = {4 << 10, 32 << 10, 256 << 10, 1 << 20};
+
+    private static volatile long sink;
+
+    private static double measure(Executor underlyingExecutor, int stateSize) throws InterruptedException {
+        KeySequentialRunner<Integer> runner = new KeySequentialRunner<>(underlyingExecutor);
+        long[][] states = new long[KEYS][stateSize / Long.BYTES];
+        CountDownLatch done = new CountDownLatch(KEYS * TASKS_PER_KEY);
+        long start = System.nanoTime();
+        for (int i = 0; i < TASKS_PER_KEY; ++i) {
+            for (int key = 0; key < KEYS; ++key) {
+                long[] state = states[key];
+                runner.run(key, () -> {
+                    // a stateful task touching the whole working set of its key
+                    long sum = 0;
+                    for (int j = 0; j < state.length; ++j) {
+                        sum += ++state[j];
+                    }
+                    sink = sum;
+                    done.countDown();
+                });
+            }
+        }
+        done.await();
+        return KEYS * TASKS_PER_KEY / ((System.nanoTime() - start) / 1e9);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        AffinityExecutor affinityExecutor = new AffinityExecutor(THREADS);
+        for (int stateSize : STATE_SIZES) {
+            for (int round = 0; round < ROUNDS; ++round) {
+                double shared = measure(pool, stateSize);
+                double affinity = measure(affinityExecutor, stateSize);
+                System.out.printf(
+                        "state %5d KiB round %d: fixed pool %,10.0f tasks/s, affinity %,10.0f tasks/s (%+.1f%%)%n",
+                        stateSize >> 10, round, shared, affinity, (affinity / shared - 1) * 100);
+            }
+        }
+        pool.shutdown();
+        affinityExecutor.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        affinityExecutor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
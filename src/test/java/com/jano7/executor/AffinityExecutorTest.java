@@ -0,0 +1,120 @@
+package com.jano7.executor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+public class AffinityExecutorTest {
+
+    @Test(timeout = 5000)
+    public void keyStaysOnWorker() throws InterruptedException {
+        AffinityExecutor affinityExecutor = new AffinityExecutor(4);
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(affinityExecutor);
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+
+        for (int i = 0; i < 100; ++i) {
+            runner.run("key", () -> threads.add(Thread.currentThread()));
+            assertTrue(runner.drain("key", 5, TimeUnit.SECONDS));
+        }
+
+        assertEquals(100, threads.size());
+        // a task may be stolen occasionally when the worker gets descheduled
+        assertTrue(Collections.frequency(threads, threads.get(threads.size() - 1)) >= 90);
+        affinityExecutor.shutdown();
+        assertTrue(affinityExecutor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 5000)
+    public void stealFromBusyWorker() throws InterruptedException {
+        AffinityExecutor affinityExecutor = new AffinityExecutor(2);
+        CountDownLatch blocked = new CountDownLatch(1);
+        LinkedBlockingQueue<Thread> threads = new LinkedBlockingQueue<>();
+
+        affinityExecutor.execute(() -> {
+            threads.offer(Thread.currentThread());
+            try {
+                blocked.await();
+            } catch (InterruptedException ignored) {
+            }
+        }, 0);
+        Thread busy = threads.take();
+        Thread.sleep(10); // a worker busy for long
+        affinityExecutor.execute(() -> threads.offer(Thread.currentThread()), 0);
+
+        assertNotSame(busy, threads.take());
+        blocked.countDown();
+        affinityExecutor.shutdown();
+        assertTrue(affinityExecutor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 5000)
+    public void stealContinuations() throws InterruptedException {
+        AffinityExecutor affinityExecutor = new AffinityExecutor(4);
+        KeySequentialRunner<Integer> runner = new KeySequentialRunner<>(affinityExecutor);
+        Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        CountDownLatch done = new CountDownLatch(4 * 25);
+
+        // submitted by a worker, so the whole backlog is pushed onto its own queue
+        affinityExecutor.execute(() -> {
+            for (int i = 0; i < 25; ++i) {
+                for (int key = 0; key < 4; ++key) {
+                    runner.run(key, () -> {
+                        threads.add(Thread.currentThread());
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                        done.countDown();
+                    });
+                }
+            }
+        }, 0);
+
+        done.await();
+        assertTrue(threads.size() > 1);
+        affinityExecutor.shutdown();
+        assertTrue(affinityExecutor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 5000)
+    public void runAcceptedTasksOnShutdown() throws InterruptedException {
+        AffinityExecutor affinityExecutor = new AffinityExecutor(2);
+        KeySequentialRunner<Integer> runner = new KeySequentialRunner<>(affinityExecutor);
+        List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch blocked = new CountDownLatch(1);
+
+        runner.run(1, () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        for (int i = 0; i < 100; ++i) {
+            final int toProcess = i;
+            runner.run(1, () -> processed.add(toProcess));
+        }
+        affinityExecutor.shutdown();
+        blocked.countDown();
+
+        assertTrue(affinityExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(100, processed.size());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(i, processed.get(i).intValue());
+        }
+        try {
+            affinityExecutor.execute(() -> {
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+}
@@ -28,12 +28,15 @@ import org.junit.Test;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static com.jano7.executor.BoundedStrategy.BLOCK;
-import static org.junit.Assert.assertEquals;
+import static com.jano7.executor.BoundedStrategy.REJECT;
+import static com.jano7.executor.TestUtil.doSomething;
+import static org.junit.Assert.*;
 
 public class KeySequentialBoundedExecutorTest {
 
@@ -63,4 +66,40 @@ public class KeySequentialBoundedExecutorTest {
             }
         }
     }
+
+    @Test(timeout = 5000)
+    public void releaseTasksOnCancel() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialBoundedExecutor boundedExecutor = new KeySequentialBoundedExecutor(3, REJECT, underlyingExecutor);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch block = new CountDownLatch(1);
+        Runnable pending1 = new KeyRunnable<>("key", doSomething);
+        Runnable pending2 = new KeyRunnable<>("key", doSomething);
+
+        boundedExecutor.execute(new KeyRunnable<>("key", () -> {
+            started.countDown();
+            try {
+                block.await();
+            } catch (InterruptedException ignored) {
+            }
+        }));
+        boundedExecutor.execute(pending1);
+        boundedExecutor.execute(pending2);
+        started.await();
+
+        List<Runnable> cancelled = boundedExecutor.cancelPending(new KeyRunnable<>("key", doSomething));
+
+        assertEquals(2, cancelled.size());
+        assertSame(pending1, cancelled.get(0));
+        assertSame(pending2, cancelled.get(1));
+
+        boundedExecutor.execute(new KeyRunnable<>("other key", doSomething));
+        boundedExecutor.execute(new KeyRunnable<>("other key", doSomething));
+        assertFalse(boundedExecutor.drain(10, TimeUnit.MILLISECONDS));
+
+        block.countDown();
+
+        assertTrue(boundedExecutor.drain(Long.MAX_VALUE, TimeUnit.SECONDS));
+        underlyingExecutor.shutdownNow();
+    }
 }
@@ -0,0 +1,199 @@
+package com.jano7.executor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class KeySequentialDurableRunnerTest {
+
+    private static final JournalCodec<Integer, Integer> codec = new JournalCodec<Integer, Integer>() {
+
+        @Override
+        public void encodeKey(Integer key, ByteBuffer buffer) {
+            buffer.putInt(key);
+        }
+
+        @Override
+        public void encodeMessage(Integer msg, ByteBuffer buffer) {
+            buffer.putInt(msg);
+        }
+
+        @Override
+        public Integer decodeKey(ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+
+        @Override
+        public Integer decodeMessage(ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 10000)
+    public void replayUnprocessedMessages() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(4);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch crash = new CountDownLatch(1);
+        CountDownLatch processed = new CountDownLatch(5 + 2 * 10);
+        KeySequentialDurableRunner<Integer, Integer> runner = KeySequentialDurableRunner.builder(
+                directory,
+                codec,
+                underlyingExecutor,
+                (Integer key, Integer msg) -> {
+                    if (key == 0 && msg == 5) {
+                        blocked.countDown();
+                        try {
+                            crash.await(); // the node crashes while processing
+                        } catch (InterruptedException ignored) {
+                        }
+                    } else {
+                        processed.countDown();
+                    }
+                }
+        ).segmentSize(1024).build();
+
+        for (int msg = 0; msg < 10; ++msg) {
+            for (int key = 0; key < 3; ++key) {
+                runner.tell(key, msg);
+            }
+        }
+        blocked.await();
+        processed.await();
+        runner.sync();
+        runner.close();
+
+        ExecutorService restartedExecutor = Executors.newFixedThreadPool(4);
+        Map<Integer, List<Integer>> replayed = new HashMap<>();
+        for (int key = 0; key < 3; ++key) {
+            replayed.put(key, Collections.synchronizedList(new ArrayList<>()));
+        }
+        CountDownLatch done = new CountDownLatch(5 + 1);
+        KeySequentialDurableRunner<Integer, Integer> restarted = KeySequentialDurableRunner.builder(
+                directory,
+                codec,
+                restartedExecutor,
+                (Integer key, Integer msg) -> {
+                    replayed.get(key).add(msg);
+                    done.countDown();
+                }
+        ).segmentSize(1024).build();
+        restarted.tell(1, 10);
+
+        done.await();
+        crash.countDown();
+
+        List<Integer> expected = new ArrayList<>();
+        for (int msg = 5; msg < 10; ++msg) {
+            expected.add(msg);
+        }
+        assertEquals(expected, replayed.get(0));
+        assertEquals(Collections.singletonList(10), replayed.get(1));
+        assertTrue(replayed.get(2).isEmpty());
+        restarted.close();
+        underlyingExecutor.shutdown();
+        restartedExecutor.shutdown();
+        underlyingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        restartedExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+    }
+
+    @Test(timeout = 10000)
+    public void recycleProcessedSegments() throws Exception {
+        File directory = folder.getRoot();
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(4);
+        Map<Integer, List<Integer>> processed = new HashMap<>();
+        for (int key = 0; key < 5; ++key) {
+            processed.put(key, Collections.synchronizedList(new ArrayList<>()));
+        }
+        KeySequentialDurableRunner<Integer, Integer> runner = KeySequentialDurableRunner.builder(
+                directory.toPath(),
+                codec,
+                underlyingExecutor,
+                (Integer key, Integer msg) -> processed.get(key).add(msg)
+        ).segmentSize(1024).maxFreeSegments(2).build();
+
+        for (int msg = 0; msg < 1000; ++msg) {
+            for (int key = 0; key < 5; ++key) {
+                runner.tell(key, msg);
+            }
+        }
+        runner.sync();
+        runner.close();
+        underlyingExecutor.shutdown();
+        underlyingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+
+        for (List<Integer> messages : processed.values()) {
+            assertEquals(1000, messages.size());
+            for (int i = 0; i < 1000; ++i) {
+                assertEquals(i, messages.get(i).intValue());
+            }
+        }
+        int segments = 0;
+        int free = 0;
+        for (String name : directory.list()) {
+            if (name.endsWith(".journal")) {
+                ++segments;
+            } else if (name.endsWith(".segment")) {
+                ++free;
+            }
+        }
+        assertEquals(1, segments); // just the active one
+        assertEquals(2, free);
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void tellAfterClose() throws Exception {
+        KeySequentialDurableRunner<Integer, Integer> runner = KeySequentialDurableRunner.builder(
+                folder.getRoot().toPath(), codec, Runnable::run, (Integer key, Integer msg) -> {
+                }
+        ).segmentSize(1024).build();
+        runner.close();
+        runner.tell(0, 0);
+    }
+
+    @Test(timeout = 5000)
+    public void rejectedMessageNotReplayed() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        KeySequentialDurableRunner<Integer, Integer> runner = KeySequentialDurableRunner.builder(
+                directory,
+                codec,
+                command -> {
+                    throw new RejectedExecutionException();
+                },
+                (Integer key, Integer msg) -> fail()
+        ).segmentSize(1024).build();
+        try {
+            runner.tell(0, 0);
+            fail();
+        } catch (RejectedExecutionException ignored) {
+        }
+        runner.close();
+
+        List<Integer> replayed = Collections.synchronizedList(new ArrayList<>());
+        KeySequentialDurableRunner<Integer, Integer> restarted = KeySequentialDurableRunner.builder(
+                directory, codec, Runnable::run, (Integer key, Integer msg) -> replayed.add(msg)
+        ).segmentSize(1024).build();
+        restarted.tell(0, 1);
+        assertEquals(Collections.singletonList(1), replayed);
+        restarted.close();
+    }
+}
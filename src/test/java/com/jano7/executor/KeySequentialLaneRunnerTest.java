@@ -0,0 +1,94 @@
+package com.jano7.executor;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+public class KeySequentialLaneRunnerTest {
+
+    @Test(timeout = 5000)
+    public void sequentialPerKey() throws InterruptedException {
+        KeySequentialLaneRunner<Integer> runner = new KeySequentialLaneRunner<>(4);
+        Map<Integer, List<Integer>> processed = new HashMap<>();
+        for (int key = 0; key < 100; ++key) {
+            processed.put(key, Collections.synchronizedList(new ArrayList<>()));
+        }
+
+        for (int i = 0; i < 100; ++i) {
+            for (int key = 0; key < 100; ++key) {
+                final int toProcess = i;
+                final int k = key;
+                runner.run(key, () -> processed.get(k).add(toProcess));
+            }
+        }
+
+        runner.shutdown();
+        assertTrue(runner.awaitTermination(5, TimeUnit.SECONDS));
+        for (List<Integer> messages : processed.values()) {
+            for (int i = 0; i < 100; ++i) {
+                assertEquals(i, messages.get(i).intValue());
+            }
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void moveKeysAwayFromHotKey() throws Exception {
+        KeySequentialLaneRunner<Integer> runner = new KeySequentialLaneRunner<>(2);
+        Map<Integer, List<Integer>> processed = new HashMap<>();
+        // all the even keys have the same home lane
+        for (int key = 0; key < 20; key += 2) {
+            processed.put(key, Collections.synchronizedList(new ArrayList<>()));
+        }
+        CountDownLatch done = new CountDownLatch(30000);
+
+        for (int i = 0; i < 10000; ++i) {
+            final int toProcess = i;
+            for (int hot = 0; hot < 2; ++hot) {
+                runner.run(0, () -> {
+                    LockSupport.parkNanos(10000);
+                    done.countDown();
+                });
+            }
+            final int cold = 2 + 2 * (i % 9);
+            runner.run(cold, () -> {
+                processed.get(cold).add(toProcess);
+                done.countDown();
+            });
+        }
+
+        done.await();
+
+        assertTrue(runner.migrations() > 0);
+        for (List<Integer> messages : processed.values()) {
+            for (int i = 1; i < messages.size(); ++i) {
+                assertTrue(messages.get(i - 1) < messages.get(i));
+            }
+        }
+        runner.shutdown();
+        assertTrue(runner.awaitTermination(5, TimeUnit.SECONDS));
+        // the keys idle on the lanes they were moved to have gone back to their home lanes
+        Field routes = KeySequentialLaneRunner.class.getDeclaredField("routes");
+        routes.setAccessible(true);
+        assertTrue(((Map<?, ?>) routes.get(runner)).isEmpty());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectAfterShutdown() {
+        KeySequentialLaneRunner<String> runner = new KeySequentialLaneRunner<>(1, Executors.defaultThreadFactory());
+        runner.shutdown();
+        runner.run("key", () -> {
+        });
+    }
+}
@@ -0,0 +1,90 @@
+package com.jano7.executor;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class KeySequentialMessageRunnerTest {
+
+    @Test(timeout = 5000)
+    public void processMessagesInOrder() throws Exception {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        Map<Integer, List<Integer>> processed = new HashMap<>();
+        for (int key = 0; key < 5; ++key) {
+            processed.put(key, Collections.synchronizedList(new ArrayList<>()));
+        }
+        CountDownLatch done = new CountDownLatch(5000);
+        KeySequentialMessageRunner<Integer, Integer> runner = new KeySequentialMessageRunner<>(
+                underlyingExecutor,
+                (key, msg) -> {
+                    processed.get(key).add(msg);
+                    done.countDown();
+                },
+                new TaskExceptionHandler<Integer>() {
+                },
+                16
+        );
+
+        for (int i = 0; i < 1000; ++i) {
+            for (int key = 0; key < 5; ++key) {
+                runner.tell(key, i);
+            }
+        }
+
+        done.await();
+
+        for (List<Integer> messages : processed.values()) {
+            for (int i = 0; i < 1000; ++i) {
+                assertEquals(i, messages.get(i).intValue());
+            }
+        }
+        underlyingExecutor.shutdown();
+        underlyingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        Field mailboxes = KeySequentialMessageRunner.class.getDeclaredField("mailboxes");
+        mailboxes.setAccessible(true);
+        assertTrue(((Map<?, ?>) mailboxes.get(runner)).isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    public void exceptionHandling() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        LinkedBlockingQueue<String> handled = new LinkedBlockingQueue<>();
+        KeySequentialMessageRunner<String, String> runner = new KeySequentialMessageRunner<>(
+                underlyingExecutor,
+                (key, msg) -> {
+                    if (msg.equals("fail")) {
+                        throw new RuntimeException(key);
+                    }
+                    handled.offer(msg);
+                },
+                new TaskExceptionHandler<String>() {
+                    @Override
+                    public void onException(String key, Throwable cause) {
+                        handled.offer("exception " + cause.getMessage());
+                    }
+                }
+        );
+
+        runner.tell("key", "fail");
+        runner.tell("key", "next");
+
+        assertEquals("exception key", handled.take());
+        assertEquals("next", handled.take());
+        underlyingExecutor.shutdown();
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectWhenShutDown() {
+        ExecutorService underlyingExecutor = Executors.newSingleThreadExecutor();
+        underlyingExecutor.shutdown();
+        new KeySequentialMessageRunner<String, String>(underlyingExecutor, (key, msg) -> fail()).tell("key", "msg");
+    }
+}
@@ -0,0 +1,182 @@
+package com.jano7.executor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class KeySequentialOffHeapRunnerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ByteBuffer payload(int value) {
+        ByteBuffer payload = ByteBuffer.allocate(4);
+        payload.putInt(0, value);
+        return payload;
+    }
+
+    @Test(timeout = 10000)
+    public void spillAndPageInInOrder() throws Exception {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(4);
+        CountDownLatch start = new CountDownLatch(1);
+        Map<Integer, List<Integer>> processed = new HashMap<>();
+        for (int key = 0; key < 3; ++key) {
+            processed.put(key, Collections.synchronizedList(new ArrayList<>()));
+        }
+        CountDownLatch done = new CountDownLatch(3 * 1000);
+        KeySequentialOffHeapRunner<Integer> runner = KeySequentialOffHeapRunner.<Integer>builder(
+                underlyingExecutor,
+                (key, msg) -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                    assertTrue(msg.isReadOnly());
+                    processed.get(key).add(msg.getInt());
+                    done.countDown();
+                }
+        ).chunkSize(64).maxMemory(8 * 64).spillDirectory(folder.getRoot().toPath()).build();
+
+        for (int msg = 0; msg < 1000; ++msg) {
+            for (int key = 0; key < 3; ++key) {
+                runner.tell(key, payload(msg));
+            }
+        }
+        assertTrue(runner.spilledBytes() > 0);
+        // a key keeps at most its first and last chunk in memory over the limit
+        assertTrue(runner.offHeapBytes() <= 8 * 64 + 3 * 2 * 64);
+
+        start.countDown();
+        done.await();
+
+        for (List<Integer> messages : processed.values()) {
+            for (int i = 0; i < 1000; ++i) {
+                assertEquals(i, messages.get(i).intValue());
+            }
+        }
+        underlyingExecutor.shutdown();
+        underlyingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        assertEquals(0, runner.spilledBytes());
+        assertTrue(runner.offHeapBytes() <= 8 * 64);
+        runner.close();
+    }
+
+    @Test(timeout = 5000)
+    public void exceptionHandling() throws Exception {
+        LinkedBlockingQueue<Integer> handled = new LinkedBlockingQueue<>();
+        KeySequentialOffHeapRunner<String> runner = KeySequentialOffHeapRunner.<String>builder(
+                Runnable::run,
+                (key, msg) -> {
+                    throw new IllegalStateException(String.valueOf(msg.getInt()));
+                }
+        ).exceptionHandler(new TaskExceptionHandler<String>() {
+            @Override
+            public void onException(String key, Throwable t) {
+                handled.add(Integer.parseInt(t.getMessage()));
+            }
+        }).spillDirectory(folder.getRoot().toPath()).build();
+
+        runner.tell("key", payload(1));
+        runner.tell("key", payload(2));
+
+        assertEquals(1, handled.take().intValue());
+        assertEquals(2, handled.take().intValue());
+        runner.close();
+    }
+
+    @Test(timeout = 5000)
+    public void rejectOversizedPayload() throws Exception {
+        KeySequentialOffHeapRunner<String> runner = KeySequentialOffHeapRunner.<String>builder(
+                Runnable::run, (key, msg) -> {
+                }
+        ).chunkSize(64).spillDirectory(folder.getRoot().toPath()).build();
+        try {
+            runner.tell("key", ByteBuffer.allocate(61));
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        runner.tell("key", ByteBuffer.allocate(60));
+        runner.close();
+    }
+
+    @Test(timeout = 5000)
+    public void rejectedExecution() throws Exception {
+        ExecutorService underlyingExecutor = Executors.newSingleThreadExecutor();
+        underlyingExecutor.shutdown();
+        KeySequentialOffHeapRunner<String> runner = KeySequentialOffHeapRunner.<String>builder(
+                underlyingExecutor, (key, msg) -> fail()
+        ).spillDirectory(folder.getRoot().toPath()).build();
+        try {
+            runner.tell("key", payload(1));
+            fail();
+        } catch (RejectedExecutionException ignored) {
+        }
+        Field backlogs = KeySequentialOffHeapRunner.class.getDeclaredField("backlogs");
+        backlogs.setAccessible(true);
+        assertTrue(((Map<?, ?>) backlogs.get(runner)).isEmpty());
+        runner.close();
+    }
+
+    @Test(timeout = 5000)
+    public void reportSpilledMessagesLostOnClose() throws Exception {
+        ExecutorService underlyingExecutor = Executors.newSingleThreadExecutor();
+        CountDownLatch start = new CountDownLatch(1);
+        LinkedBlockingQueue<Integer> processed = new LinkedBlockingQueue<>();
+        LinkedBlockingQueue<Throwable> failures = new LinkedBlockingQueue<>();
+        KeySequentialOffHeapRunner<String> runner = KeySequentialOffHeapRunner.<String>builder(
+                underlyingExecutor,
+                (key, msg) -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                    processed.add(msg.getInt());
+                }
+        ).exceptionHandler(new TaskExceptionHandler<String>() {
+            @Override
+            public void onException(String key, Throwable cause) {
+                failures.add(cause);
+            }
+        }).chunkSize(64).maxMemory(2 * 64).spillDirectory(folder.getRoot().toPath()).build();
+
+        for (int msg = 0; msg < 100; ++msg) {
+            runner.tell("key", payload(msg));
+        }
+        assertTrue(runner.spilledBytes() > 0);
+        runner.close();
+        start.countDown();
+
+        // the last chunk of the key is kept in memory, so its messages are still processed
+        while (processed.take() != 99) {
+        }
+        assertTrue(failures.take() instanceof UncheckedIOException);
+        try {
+            runner.tell("key", payload(100));
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        underlyingExecutor.shutdown();
+        assertTrue(underlyingExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        Field backlogs = KeySequentialOffHeapRunner.class.getDeclaredField("backlogs");
+        backlogs.setAccessible(true);
+        assertTrue(((Map<?, ?>) backlogs.get(runner)).isEmpty());
+    }
+}
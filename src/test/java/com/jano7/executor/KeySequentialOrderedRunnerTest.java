@@ -0,0 +1,102 @@
+package com.jano7.executor;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class KeySequentialOrderedRunnerTest {
+
+    @Test(timeout = 5000)
+    public void computeConcurrentlyCommitInOrder() throws Exception {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialOrderedRunner<Integer> runner = new KeySequentialOrderedRunner<>(underlyingExecutor, 4);
+        List<Integer> committed = Collections.synchronizedList(new LinkedList<>());
+        AtomicInteger computing = new AtomicInteger(0);
+        AtomicInteger maxComputing = new AtomicInteger(0);
+        CountDownLatch done = new CountDownLatch(200);
+        Random random = new Random(7);
+
+        for (int i = 0; i < 200; ++i) {
+            final int toProcess = i;
+            final int sleep = random.nextInt(3);
+            runner.run(i % 2, () -> {
+                maxComputing.accumulateAndGet(computing.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException ignored) {
+                }
+                computing.decrementAndGet();
+                return toProcess;
+            }, result -> {
+                committed.add(result);
+                done.countDown();
+            });
+        }
+
+        done.await();
+
+        assertTrue(maxComputing.get() > 2);
+        assertTrue(maxComputing.get() <= 8);
+        int previousOdd = -1;
+        int previousEven = -2;
+        for (int c : committed) {
+            if (c % 2 == 0) {
+                assertEquals(previousEven + 2, c);
+                previousEven = c;
+            } else {
+                assertEquals(previousOdd + 2, c);
+                previousOdd = c;
+            }
+        }
+
+        underlyingExecutor.shutdown();
+        underlyingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        Field pipelines = KeySequentialOrderedRunner.class.getDeclaredField("pipelines");
+        pipelines.setAccessible(true);
+        assertTrue(((Map<?, ?>) pipelines.get(runner)).isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    public void failedComputeIsNotCommitted() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        LinkedBlockingQueue<Throwable> handledExceptions = new LinkedBlockingQueue<>();
+        KeySequentialOrderedRunner<String> runner = new KeySequentialOrderedRunner<>(
+                underlyingExecutor,
+                2,
+                new TaskExceptionHandler<String>() {
+                    @Override
+                    public void onException(String key, Throwable cause) {
+                        handledExceptions.offer(cause);
+                    }
+                }
+        );
+        List<String> committed = Collections.synchronizedList(new LinkedList<>());
+        CountDownLatch done = new CountDownLatch(1);
+
+        runner.run("key", () -> "first", committed::add);
+        runner.run("key", () -> {
+            throw new RuntimeException("failed");
+        }, result -> committed.add("failed"));
+        runner.run("key", () -> "third", result -> {
+            committed.add(result);
+            done.countDown();
+        });
+
+        done.await();
+
+        assertEquals("failed", handledExceptions.take().getMessage());
+        assertEquals(2, committed.size());
+        assertEquals("first", committed.get(0));
+        assertEquals("third", committed.get(1));
+        underlyingExecutor.shutdownNow();
+    }
+}
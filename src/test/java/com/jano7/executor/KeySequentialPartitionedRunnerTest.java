@@ -0,0 +1,219 @@
+package com.jano7.executor;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class KeySequentialPartitionedRunnerTest {
+
+    private final ExecutorService underlyingExecutor = Executors.newFixedThreadPool(4);
+    private final LoopbackTransport<String, Integer> transport = new LoopbackTransport<>();
+
+    @After
+    public void shutdown() throws InterruptedException {
+        underlyingExecutor.shutdown();
+        underlyingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+    }
+
+    private KeySequentialPartitionedRunner<String, Integer> node(String name, Handler handler) {
+        return new KeySequentialPartitionedRunner<>(
+                name,
+                transport,
+                new KeySequentialRunner<>(underlyingExecutor),
+                (key, msg) -> handler.handle(name, key, msg)
+        );
+    }
+
+    private interface Handler {
+        void handle(String node, String key, Integer msg);
+    }
+
+    private static String keyOwnedBy(String owner, List<String> nodes) {
+        HashRing ring = new HashRing(0, nodes, 128);
+        for (int i = 0; ; ++i) {
+            if (owner.equals(ring.owner("key" + i))) {
+                return "key" + i;
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void routeToOwners() throws InterruptedException {
+        List<String> members = Arrays.asList("A", "B", "C");
+        HashRing ring = new HashRing(0, members, 128);
+        List<String> processed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(300);
+        Handler handler = (node, key, msg) -> {
+            assertEquals(ring.owner(key), node);
+            processed.add(key + ":" + msg);
+            done.countDown();
+        };
+        List<KeySequentialPartitionedRunner<String, Integer>> nodes = new ArrayList<>();
+        for (String member : members) {
+            nodes.add(node(member, handler));
+        }
+        for (KeySequentialPartitionedRunner<String, Integer> node : nodes) {
+            node.members(1, members);
+        }
+
+        for (int msg = 0; msg < 10; ++msg) {
+            for (int key = 0; key < 30; ++key) {
+                nodes.get(key % 3).tell("key" + key, msg);
+            }
+        }
+        done.await();
+
+        for (int key = 0; key < 30; ++key) {
+            int next = 0;
+            for (String entry : processed) {
+                if (entry.startsWith("key" + key + ":")) {
+                    assertEquals("key" + key + ":" + next++, entry);
+                }
+            }
+            assertEquals(10, next);
+        }
+        for (KeySequentialPartitionedRunner<String, Integer> node : nodes) {
+            node.close();
+        }
+    }
+
+    private void handOverInOrder(boolean newOwnerFirst) throws InterruptedException {
+        String key = keyOwnedBy("B", Arrays.asList("A", "B"));
+        CountDownLatch block = new CountDownLatch(1);
+        LinkedBlockingQueue<String> processed = new LinkedBlockingQueue<>();
+        Handler handler = (node, k, msg) -> {
+            if (msg == 0) {
+                try {
+                    block.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+            processed.add(node + msg);
+        };
+        KeySequentialPartitionedRunner<String, Integer> a = node("A", handler);
+        KeySequentialPartitionedRunner<String, Integer> b = node("B", handler);
+        a.members(1, Collections.singletonList("A"));
+        b.members(1, Collections.singletonList("A"));
+        for (int msg = 0; msg < 5; ++msg) {
+            b.tell(key, msg); // forwarded to A
+        }
+
+        if (newOwnerFirst) {
+            b.members(2, Arrays.asList("A", "B"));
+            a.members(2, Arrays.asList("A", "B"));
+        } else {
+            a.members(2, Arrays.asList("A", "B"));
+            a.tell(key, 5); // routed by the epoch B has not been given yet
+            b.members(2, Arrays.asList("A", "B"));
+        }
+        for (int msg = newOwnerFirst ? 5 : 6; msg < 10; ++msg) {
+            (msg % 2 == 0 ? a : b).tell(key, msg);
+        }
+        Thread.sleep(50);
+        assertTrue(processed.isEmpty()); // B holds the key until A has processed its messages
+
+        block.countDown();
+        for (int msg = 0; msg < 10; ++msg) {
+            assertEquals((msg < 5 ? "A" : "B") + msg, processed.take());
+        }
+        a.close();
+        b.close();
+    }
+
+    @Test(timeout = 10000)
+    public void handOverInOrderWhenNewOwnerUpdatedFirst() throws InterruptedException {
+        handOverInOrder(true);
+    }
+
+    @Test(timeout = 10000)
+    public void handOverInOrderWhenOldOwnerUpdatedFirst() throws InterruptedException {
+        handOverInOrder(false);
+    }
+
+    @Test(timeout = 10000)
+    public void releaseIdleKeysOnHandoverComplete() throws InterruptedException {
+        String key = keyOwnedBy("B", Arrays.asList("A", "B"));
+        LinkedBlockingQueue<String> processed = new LinkedBlockingQueue<>();
+        Handler handler = (node, k, msg) -> processed.add(node + msg);
+        KeySequentialPartitionedRunner<String, Integer> a = node("A", handler);
+        KeySequentialPartitionedRunner<String, Integer> b = node("B", handler);
+        a.members(1, Collections.singletonList("A"));
+        b.members(1, Collections.singletonList("A"));
+        b.members(2, Arrays.asList("A", "B"));
+
+        b.tell(key, 0);
+        Thread.sleep(50);
+        assertTrue(processed.isEmpty()); // A might still have the key's messages
+
+        a.members(2, Arrays.asList("A", "B"));
+        assertEquals("B0", processed.take());
+        b.tell(key, 1);
+        assertEquals("B1", processed.take());
+        assertEquals("B", a.owner(key));
+        a.close();
+        b.close();
+    }
+
+    @Test(timeout = 10000)
+    public void releaseKeysOfDepartedNode() throws InterruptedException {
+        String key = keyOwnedBy("B", Arrays.asList("A", "B"));
+        LinkedBlockingQueue<String> processed = new LinkedBlockingQueue<>();
+        Handler handler = (node, k, msg) -> processed.add(node + msg);
+        KeySequentialPartitionedRunner<String, Integer> a = node("A", handler);
+        KeySequentialPartitionedRunner<String, Integer> b = node("B", handler);
+        a.members(1, Collections.singletonList("A"));
+        b.members(1, Collections.singletonList("A"));
+        a.close(); // A crashes before it hands its keys over
+
+        b.members(2, Arrays.asList("A", "B")); // the handover signals to A fail, but do not fail the change
+        b.tell(key, 0);
+        Thread.sleep(50);
+        assertTrue(processed.isEmpty());
+
+        b.members(3, Collections.singletonList("B"));
+        assertEquals("B0", processed.take());
+        b.tell(key, 1);
+        assertEquals("B1", processed.take());
+        b.close();
+    }
+
+    @Test(timeout = 10000)
+    public void handOverKeyOfRejectedMessage() throws InterruptedException {
+        String key = keyOwnedBy("B", Arrays.asList("A", "B"));
+        LinkedBlockingQueue<String> processed = new LinkedBlockingQueue<>();
+        ExecutorService rejecting = Executors.newSingleThreadExecutor();
+        rejecting.shutdown();
+        KeySequentialPartitionedRunner<String, Integer> a = new KeySequentialPartitionedRunner<>(
+                "A", transport, new KeySequentialRunner<>(rejecting), (k, msg) -> processed.add("A" + msg));
+        KeySequentialPartitionedRunner<String, Integer> b = node("B", (node, k, msg) -> processed.add(node + msg));
+        a.members(1, Collections.singletonList("A"));
+        b.members(1, Collections.singletonList("A"));
+
+        try {
+            a.tell(key, 0);
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        b.members(2, Arrays.asList("A", "B"));
+        a.members(2, Arrays.asList("A", "B"));
+        b.tell(key, 1);
+
+        assertEquals("B1", processed.take());
+        assertTrue(processed.isEmpty());
+        a.close();
+        b.close();
+    }
+}
@@ -0,0 +1,195 @@
+package com.jano7.executor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class KeySequentialProcessorTest {
+
+    private static final class Source {
+
+        private final LinkedBlockingQueue<Long> requests = new LinkedBlockingQueue<>();
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+        void subscribe(KeySequentialProcessor<String, ?, ?> processor) {
+            processor.onSubscribe(requests::add, () -> cancelled.set(true));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void backPressureAndOrder() throws Exception {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(4);
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(underlyingExecutor);
+        KeySequentialProcessor<String, String, String> processor = new KeySequentialProcessor<>(
+                runner, item -> item.substring(0, 1), String::toUpperCase, 8, 8);
+        Map<String, List<String>> results = new HashMap<>();
+        CountDownLatch completed = new CountDownLatch(1);
+        processor.subscribe(new KeySequentialProcessor.ResultSubscriber<String, String>() {
+            @Override
+            public void onNext(String key, String result) {
+                results.computeIfAbsent(key, k -> new ArrayList<>()).add(result);
+                processor.request(1);
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+        processor.request(1);
+        Source source = new Source();
+        source.subscribe(processor);
+
+        int emitted = 0;
+        while (emitted < 300) {
+            long n = source.requests.take();
+            assertTrue(n <= 8);
+            for (int i = 0; i < n && emitted < 300; ++i, ++emitted) {
+                processor.onNext((char) ('a' + emitted % 3) + String.valueOf(emitted / 3));
+            }
+        }
+        processor.onComplete();
+        completed.await();
+
+        assertEquals(3, results.size());
+        for (Map.Entry<String, List<String>> entry : results.entrySet()) {
+            for (int i = 0; i < 100; ++i) {
+                assertEquals(entry.getKey().toUpperCase() + i, entry.getValue().get(i));
+            }
+        }
+        underlyingExecutor.shutdown();
+        underlyingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+    }
+
+    @Test(timeout = 5000)
+    public void noDemandWhileKeySaturated() throws Exception {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(4);
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(underlyingExecutor);
+        CountDownLatch block = new CountDownLatch(1);
+        KeySequentialProcessor<String, String, String> processor = new KeySequentialProcessor<>(
+                runner,
+                item -> item.substring(0, 1),
+                item -> {
+                    if (item.startsWith("a")) {
+                        try {
+                            block.await();
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                    return item;
+                },
+                10,
+                2
+        );
+        LinkedBlockingQueue<String> results = new LinkedBlockingQueue<>();
+        processor.subscribe((key, result) -> results.add(result));
+        processor.request(Long.MAX_VALUE);
+        Source source = new Source();
+        source.subscribe(processor);
+        assertEquals(10, source.requests.take().longValue());
+
+        processor.onNext("a0");
+        processor.onNext("a1"); // the key 'a' is saturated
+        processor.onNext("b0");
+        assertEquals("b0", results.take());
+        Thread.sleep(50);
+        assertTrue(source.requests.isEmpty());
+
+        block.countDown();
+        assertEquals("a0", results.take());
+        assertEquals("a1", results.take());
+        // the saturation ends with a0 done, b0 and a1 may be done by the time the demand is computed
+        long n = source.requests.take();
+        assertTrue(n >= 1 && n <= 3);
+        underlyingExecutor.shutdown();
+        underlyingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+    }
+
+    @Test(timeout = 5000)
+    public void failureCancelsUpstream() throws Exception {
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(Runnable::run);
+        KeySequentialProcessor<String, String, Integer> processor = new KeySequentialProcessor<>(
+                runner, item -> "key", Integer::parseInt, 4, 4);
+        List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger errors = new AtomicInteger(0);
+        processor.subscribe(new KeySequentialProcessor.ResultSubscriber<String, Integer>() {
+            @Override
+            public void onNext(String key, Integer result) {
+                results.add(result);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                assertTrue(t instanceof NumberFormatException);
+                errors.incrementAndGet();
+            }
+        });
+        Source source = new Source();
+        source.subscribe(processor);
+        source.requests.take();
+
+        processor.onNext("1");
+        processor.onNext("x");
+        processor.onNext("2"); // dropped
+        assertTrue(source.cancelled.get());
+        assertEquals(0, errors.get()); // the result of "1" has not been delivered yet
+
+        processor.request(10);
+        assertEquals(Collections.singletonList(1), results);
+        assertEquals(1, errors.get());
+    }
+
+    @Test(timeout = 10000)
+    public void serialUpstreamSignals() throws Exception {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(4);
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(underlyingExecutor);
+        KeySequentialProcessor<String, String, String> processor = new KeySequentialProcessor<>(
+                runner, item -> item, item -> item, 4, 1);
+        CountDownLatch delivered = new CountDownLatch(1000);
+        processor.subscribe((key, result) -> delivered.countDown());
+        processor.request(Long.MAX_VALUE);
+        LinkedBlockingQueue<Long> requests = new LinkedBlockingQueue<>();
+        AtomicInteger signalling = new AtomicInteger(0);
+        AtomicBoolean overlapped = new AtomicBoolean(false);
+        processor.onSubscribe(n -> {
+            if (signalling.incrementAndGet() > 1) {
+                overlapped.set(true);
+            }
+            Thread.yield();
+            requests.add(n);
+            signalling.decrementAndGet();
+        }, () -> {
+            if (signalling.incrementAndGet() > 1) {
+                overlapped.set(true);
+            }
+            signalling.decrementAndGet();
+        });
+
+        int emitted = 0;
+        while (emitted < 1000) {
+            long n = requests.take();
+            for (int i = 0; i < n && emitted < 1000; ++i, ++emitted) {
+                processor.onNext("key" + emitted);
+            }
+        }
+        delivered.await();
+        processor.cancel();
+
+        assertFalse(overlapped.get());
+        underlyingExecutor.shutdown();
+        underlyingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,159 @@
+package com.jano7.executor;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.jano7.executor.TestUtil.doSomething;
+import static org.junit.Assert.*;
+
+public class KeySequentialReadWriteRunnerTest {
+
+    @Test(timeout = 5000)
+    public void consecutiveReadsRunConcurrently() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialReadWriteRunner<String> runner = new KeySequentialReadWriteRunner<>(underlyingExecutor);
+        CyclicBarrier readers = new CyclicBarrier(3);
+        CountDownLatch done = new CountDownLatch(3);
+
+        for (int i = 0; i < 3; ++i) {
+            runner.read("key", () -> {
+                try {
+                    readers.await();
+                    done.countDown();
+                } catch (InterruptedException | BrokenBarrierException ignored) {
+                }
+            });
+        }
+
+        done.await();
+        underlyingExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void writesAreExclusiveAndOrdered() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialReadWriteRunner<String> runner = new KeySequentialReadWriteRunner<>(underlyingExecutor);
+        AtomicInteger active = new AtomicInteger(0);
+        AtomicInteger violations = new AtomicInteger(0);
+        AtomicInteger lastWritten = new AtomicInteger(-1);
+
+        for (int i = 0; i < 1000; ++i) {
+            final int toProcess = i;
+            if (i % 4 == 0) {
+                runner.write("key", () -> {
+                    if (active.incrementAndGet() != 1 || lastWritten.get() != toProcess - 4 && toProcess > 0) {
+                        violations.incrementAndGet();
+                    }
+                    lastWritten.set(toProcess);
+                    active.decrementAndGet();
+                });
+            } else {
+                runner.read("key", () -> {
+                    active.incrementAndGet();
+                    if (lastWritten.get() != toProcess - toProcess % 4) {
+                        violations.incrementAndGet();
+                    }
+                    active.decrementAndGet();
+                });
+            }
+        }
+
+        underlyingExecutor.shutdown();
+        underlyingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+
+        assertEquals(0, violations.get());
+        assertEquals(996, lastWritten.get());
+    }
+
+    @Test(timeout = 5000)
+    public void writeWaitsForReaders() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialReadWriteRunner<String> runner = new KeySequentialReadWriteRunner<>(underlyingExecutor);
+        List<String> events = Collections.synchronizedList(new LinkedList<>());
+        CountDownLatch block = new CountDownLatch(1);
+        CountDownLatch read2 = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        runner.read("key", () -> {
+            try {
+                block.await();
+            } catch (InterruptedException ignored) {
+            }
+            events.add("read 1");
+        });
+        runner.read("key", () -> {
+            events.add("read 2");
+            read2.countDown();
+        });
+        runner.write("key", () -> events.add("write"));
+        runner.read("key", () -> {
+            events.add("read 3");
+            done.countDown();
+        });
+
+        read2.await();
+        assertEquals(Collections.singletonList("read 2"), events);
+
+        block.countDown();
+        done.await();
+
+        assertEquals("read 1", events.get(1));
+        assertEquals("write", events.get(2));
+        assertEquals("read 3", events.get(3));
+        underlyingExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void rejectHandling() throws Exception {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialReadWriteRunner<String> runner = new KeySequentialReadWriteRunner<>(underlyingExecutor);
+        CountDownLatch block = new CountDownLatch(1);
+        AtomicInteger completed = new AtomicInteger(0);
+
+        runner.write("key", () -> {
+            try {
+                block.await();
+            } catch (InterruptedException ignored) {
+            }
+            completed.incrementAndGet();
+        });
+        runner.read("key", completed::incrementAndGet);
+        runner.read("key", completed::incrementAndGet);
+
+        underlyingExecutor.shutdown();
+
+        try {
+            runner.write("other key", doSomething);
+            fail("not rejected");
+        } catch (RejectedExecutionException e) {
+            assertTrue(true);
+        }
+
+        block.countDown();
+        underlyingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+
+        assertEquals(3, completed.get());
+        Field keyRunners = KeySequentialReadWriteRunner.class.getDeclaredField("keyRunners");
+        keyRunners.setAccessible(true);
+        assertTrue(((Map<?, ?>) keyRunners.get(runner)).isEmpty());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void throwExceptionWhenTaskIsNull() {
+        ExecutorService underlying = Executors.newCachedThreadPool();
+        KeySequentialReadWriteRunner<Integer> runner = new KeySequentialReadWriteRunner<>(underlying);
+
+        try {
+            runner.read(1, null);
+        } finally {
+            underlying.shutdownNow();
+        }
+    }
+}
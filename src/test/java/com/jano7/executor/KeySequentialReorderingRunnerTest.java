@@ -0,0 +1,182 @@
+package com.jano7.executor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class KeySequentialReorderingRunnerTest {
+
+    @Test(timeout = 5000)
+    public void releaseInSequence() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialReorderingRunner<Integer> runner = new KeySequentialReorderingRunner<>(
+                new KeySequentialRunner<>(underlyingExecutor),
+                16,
+                1,
+                TimeUnit.MINUTES,
+                (key, firstMissing, lastMissing) -> fail("unexpected gap")
+        );
+        List<Long> processed = Collections.synchronizedList(new LinkedList<>());
+        CountDownLatch done = new CountDownLatch(100);
+        List<Long> sequences = new ArrayList<>();
+        for (long i = 0; i < 100; i += 10) {
+            List<Long> window = new ArrayList<>();
+            for (long j = i; j < i + 10; ++j) {
+                window.add(j);
+            }
+            Collections.shuffle(window);
+            sequences.addAll(window);
+        }
+
+        for (long sequence : sequences) {
+            runner.run(1, sequence, () -> {
+                processed.add(sequence);
+                done.countDown();
+            });
+        }
+
+        done.await();
+
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(i, processed.get(i).longValue());
+        }
+        assertEquals(100, runner.nextSequence(1));
+        assertEquals(0, runner.nextSequence(2));
+        underlyingExecutor.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void giveUpOnGap() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        LinkedBlockingQueue<String> events = new LinkedBlockingQueue<>();
+        KeySequentialReorderingRunner<String> runner = new KeySequentialReorderingRunner<>(
+                new KeySequentialRunner<>(underlyingExecutor),
+                16,
+                50,
+                TimeUnit.MILLISECONDS,
+                new SequenceGapHandler<String>() {
+                    @Override
+                    public void onGap(String key, long firstMissing, long lastMissing) {
+                        events.offer("gap " + firstMissing + "-" + lastMissing);
+                    }
+
+                    @Override
+                    public void onDiscarded(String key, long sequence, Runnable task) {
+                        events.offer("discarded " + sequence);
+                    }
+                }
+        );
+
+        runner.run("key", 0, () -> events.offer("0"));
+        runner.run("key", 3, () -> events.offer("3"));
+        runner.run("key", 4, () -> events.offer("4"));
+
+        assertEquals("0", events.take());
+        assertEquals("gap 1-2", events.take());
+        assertEquals("3", events.take());
+        assertEquals("4", events.take());
+
+        runner.run("key", 1, () -> events.offer("1"));
+        assertEquals("discarded 1", events.take());
+        assertEquals(5, runner.nextSequence("key"));
+
+        try {
+            runner.run("key", 21, () -> events.offer("21"));
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        underlyingExecutor.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void fillGapFromHandler() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        LinkedBlockingQueue<String> events = new LinkedBlockingQueue<>();
+        List<KeySequentialReorderingRunner<String>> runner = new ArrayList<>(1);
+        runner.add(new KeySequentialReorderingRunner<>(
+                new KeySequentialRunner<>(underlyingExecutor),
+                16,
+                50,
+                TimeUnit.MILLISECONDS,
+                (key, firstMissing, lastMissing) -> {
+                    for (long sequence = firstMissing; sequence <= lastMissing; ++sequence) {
+                        final long resent = sequence;
+                        runner.get(0).run(key, sequence, () -> events.offer("resent " + resent));
+                    }
+                }
+        ));
+
+        runner.get(0).run("key", 2, () -> events.offer("2"));
+        runner.get(0).run("key", 4, () -> events.offer("4"));
+
+        assertEquals("resent 0", events.take());
+        assertEquals("resent 1", events.take());
+        assertEquals("2", events.take());
+        assertEquals("resent 3", events.take());
+        assertEquals("4", events.take());
+        assertEquals(5, runner.get(0).nextSequence("key"));
+        underlyingExecutor.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void resetSequence() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        LinkedBlockingQueue<Long> processed = new LinkedBlockingQueue<>();
+        KeySequentialReorderingRunner<String> runner = new KeySequentialReorderingRunner<>(
+                new KeySequentialRunner<>(underlyingExecutor),
+                16,
+                1,
+                TimeUnit.MINUTES,
+                (key, firstMissing, lastMissing) -> fail("unexpected gap")
+        );
+
+        runner.reset("key", 100);
+        runner.run("key", 101, () -> processed.offer(101L));
+        runner.run("key", 100, () -> processed.offer(100L));
+
+        assertEquals(100, processed.take().longValue());
+        assertEquals(101, processed.take().longValue());
+        assertEquals(102, runner.nextSequence("key"));
+        underlyingExecutor.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void rejectTooFarAheadOfHeld() {
+        List<Long> discarded = Collections.synchronizedList(new ArrayList<>());
+        KeySequentialReorderingRunner<String> runner = new KeySequentialReorderingRunner<>(
+                new KeySequentialRunner<>(Runnable::run),
+                4,
+                1,
+                TimeUnit.MINUTES,
+                new SequenceGapHandler<String>() {
+                    @Override
+                    public void onGap(String key, long firstMissing, long lastMissing) {
+                    }
+
+                    @Override
+                    public void onDiscarded(String key, long sequence, Runnable task) {
+                        discarded.add(sequence);
+                    }
+                }
+        );
+
+        runner.run("key", 1, () -> {
+        });
+        try {
+            runner.run("key", 5, () -> {
+            }); // the slot of 5 holds 1
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertTrue(discarded.isEmpty());
+        runner.forget("key");
+    }
+}
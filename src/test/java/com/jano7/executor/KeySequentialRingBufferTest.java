@@ -0,0 +1,128 @@
+package com.jano7.executor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class KeySequentialRingBufferTest {
+
+    private void publishFromManyProducers(WaitStrategy waitStrategy, int capacity) throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(4);
+        ExecutorService producers = Executors.newFixedThreadPool(4);
+        List<List<Integer>> processed = new ArrayList<>();
+        for (int producer = 0; producer < 4; ++producer) {
+            processed.add(Collections.synchronizedList(new ArrayList<>()));
+        }
+        CountDownLatch done = new CountDownLatch(4 * 2000);
+        KeySequentialRingBuffer<Integer, Integer> ringBuffer = new KeySequentialRingBuffer<>(
+                capacity,
+                new KeySequentialMessageRunner<>(underlyingExecutor, (key, msg) -> {
+                    processed.get(key).add(msg);
+                    done.countDown();
+                }),
+                waitStrategy
+        );
+
+        for (int producer = 0; producer < 4; ++producer) {
+            final int key = producer;
+            producers.execute(() -> {
+                for (int i = 0; i < 2000; ++i) {
+                    ringBuffer.publish(key, i);
+                }
+            });
+        }
+
+        done.await();
+
+        for (List<Integer> messages : processed) {
+            for (int i = 0; i < 2000; ++i) {
+                assertEquals(i, messages.get(i).intValue());
+            }
+        }
+        assertTrue(ringBuffer.shutdown(5, TimeUnit.SECONDS));
+        producers.shutdown();
+        underlyingExecutor.shutdown();
+    }
+
+    @Test(timeout = 10000)
+    public void busySpin() throws InterruptedException {
+        publishFromManyProducers(WaitStrategy.BUSY_SPIN, 1024);
+    }
+
+    @Test(timeout = 10000)
+    public void yield() throws InterruptedException {
+        publishFromManyProducers(WaitStrategy.YIELD, 1024);
+    }
+
+    @Test(timeout = 10000)
+    public void park() throws InterruptedException {
+        publishFromManyProducers(WaitStrategy.PARK, 8);
+    }
+
+    @Test(timeout = 5000)
+    public void dispatchPublishedOnShutdown() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newSingleThreadExecutor();
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<String> processed = Collections.synchronizedList(new ArrayList<>());
+        KeySequentialRingBuffer<String, String> ringBuffer = new KeySequentialRingBuffer<>(
+                2,
+                new KeySequentialMessageRunner<>(underlyingExecutor, (key, msg) -> {
+                    try {
+                        blocked.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                    processed.add(msg);
+                }),
+                WaitStrategy.PARK
+        );
+
+        ringBuffer.publish("key", "first");
+        ringBuffer.publish("key", "second");
+        blocked.countDown();
+        assertTrue(ringBuffer.shutdown(5, TimeUnit.SECONDS));
+        try {
+            ringBuffer.tryPublish("key", "rejected");
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        underlyingExecutor.shutdown();
+        underlyingExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        assertEquals(2, processed.size());
+    }
+
+    @Test(timeout = 10000)
+    public void tryPublishFailsOnlyWhenFull() throws InterruptedException {
+        ExecutorService producers = Executors.newFixedThreadPool(2);
+        CountDownLatch done = new CountDownLatch(2 * 20000);
+        KeySequentialRingBuffer<Integer, Integer> ringBuffer = new KeySequentialRingBuffer<>(
+                1 << 16,
+                new KeySequentialMessageRunner<>(Runnable::run, (key, msg) -> done.countDown()),
+                WaitStrategy.PARK
+        );
+        List<Integer> failed = Collections.synchronizedList(new ArrayList<>());
+
+        for (int producer = 0; producer < 2; ++producer) {
+            final int key = producer;
+            producers.execute(() -> {
+                for (int i = 0; i < 20000; ++i) {
+                    if (!ringBuffer.tryPublish(key, i)) {
+                        failed.add(i); // a lost race with the other producer is not a full buffer
+                    }
+                }
+            });
+        }
+        producers.shutdown();
+        assertTrue(producers.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertTrue(failed.isEmpty());
+        done.await();
+        assertTrue(ringBuffer.shutdown(5, TimeUnit.SECONDS));
+    }
+}
@@ -26,11 +26,16 @@ package com.jano7.executor;
 import org.junit.Test;
 
 import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.jano7.executor.BoundedStrategy.BLOCK;
@@ -294,6 +299,499 @@ public class KeySequentialRunnerTest {
         assertTrue(submittedTasks.containsAll(completedTasks) && completedTasks.containsAll(submittedTasks));
     }
 
+    @Test(timeout = 5000)
+    public void cancelPending() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(underlyingExecutor);
+        List<Integer> processed = Collections.synchronizedList(new LinkedList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch block = new CountDownLatch(1);
+        Runnable pending1 = () -> processed.add(2);
+        Runnable pending2 = () -> processed.add(3);
+
+        runner.run("key", () -> {
+            started.countDown();
+            try {
+                block.await();
+            } catch (InterruptedException ignored) {
+            }
+            processed.add(1);
+        });
+        runner.run("key", pending1);
+        runner.run("key", pending2);
+        started.await();
+
+        assertEquals(Arrays.asList(pending1, pending2), runner.cancelPending("key"));
+        assertTrue(runner.cancelPending("key").isEmpty());
+        assertTrue(runner.cancelPending("unknown").isEmpty());
+
+        runner.run("key", () -> processed.add(4));
+        block.countDown();
+
+        underlyingExecutor.shutdown();
+        underlyingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList(1, 4), processed);
+    }
+
+    @Test(timeout = 5000)
+    public void cancelIf() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(underlyingExecutor);
+        List<Integer> processed = Collections.synchronizedList(new LinkedList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch block = new CountDownLatch(1);
+
+        runner.run("key", () -> {
+            started.countDown();
+            try {
+                block.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        Runnable odd = new KeyRunnable<>(1, () -> processed.add(1));
+        Runnable even = new KeyRunnable<>(2, () -> processed.add(2));
+        runner.run("key", odd);
+        runner.run("key", even);
+        runner.run("key", odd);
+        started.await();
+
+        assertEquals(Arrays.asList(odd, odd), runner.cancelIf("key", task -> task.equals(odd)));
+        block.countDown();
+
+        underlyingExecutor.shutdown();
+        underlyingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+
+        assertEquals(Collections.singletonList(2), processed);
+    }
+
+    @Test(timeout = 5000)
+    public void awaitQuiescence() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<Integer> runner = new KeySequentialRunner<>(underlyingExecutor);
+        AtomicInteger completed = new AtomicInteger(0);
+        CountDownLatch block = new CountDownLatch(1);
+
+        assertTrue(runner.awaitQuiescence(0, TimeUnit.SECONDS));
+
+        runner.run(0, () -> {
+            try {
+                block.await();
+            } catch (InterruptedException ignored) {
+            }
+            completed.incrementAndGet();
+        });
+        for (int i = 1; i < 1000; ++i) {
+            runner.run(i % 10, completed::incrementAndGet);
+        }
+
+        assertFalse(runner.awaitQuiescence(10, TimeUnit.MILLISECONDS));
+
+        block.countDown();
+
+        assertTrue(runner.awaitQuiescence(Long.MAX_VALUE, TimeUnit.SECONDS));
+        assertEquals(1000, completed.get());
+        assertTrue(underlyingExecutor.shutdownNow().isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    public void drainKey() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(underlyingExecutor);
+        AtomicInteger completed = new AtomicInteger(0);
+        CountDownLatch block = new CountDownLatch(1);
+        CountDownLatch blockOther = new CountDownLatch(1);
+
+        runner.run("key", () -> {
+            try {
+                block.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        runner.run("key", completed::incrementAndGet);
+        runner.run("other key", () -> {
+            try {
+                blockOther.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+
+        assertTrue(runner.drain("unknown key", 0, TimeUnit.SECONDS));
+        assertFalse(runner.drain("key", 10, TimeUnit.MILLISECONDS));
+
+        block.countDown();
+
+        assertTrue(runner.drain("key", Long.MAX_VALUE, TimeUnit.SECONDS));
+        assertEquals(1, completed.get());
+        assertFalse(runner.awaitQuiescence(10, TimeUnit.MILLISECONDS));
+
+        blockOther.countDown();
+
+        assertTrue(runner.awaitQuiescence(Long.MAX_VALUE, TimeUnit.SECONDS));
+        underlyingExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void barrier() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(underlyingExecutor);
+        AtomicInteger completedBeforeBarrier = new AtomicInteger(0);
+        CountDownLatch blockA = new CountDownLatch(1);
+        CountDownLatch afterBarrierB = new CountDownLatch(1);
+        CountDownLatch barrierReached = new CountDownLatch(1);
+        AtomicInteger completedAtBarrier = new AtomicInteger(-1);
+
+        runner.run("A", () -> {
+            try {
+                blockA.await();
+            } catch (InterruptedException ignored) {
+            }
+            completedBeforeBarrier.incrementAndGet();
+        });
+        for (int i = 0; i < 10; ++i) {
+            runner.run("B", completedBeforeBarrier::incrementAndGet);
+        }
+
+        runner.barrier(() -> {
+            completedAtBarrier.set(completedBeforeBarrier.get());
+            barrierReached.countDown();
+        });
+
+        runner.run("B", afterBarrierB::countDown);
+        runner.run("C", doSomething);
+
+        afterBarrierB.await();
+        assertFalse(barrierReached.await(10, TimeUnit.MILLISECONDS));
+
+        blockA.countDown();
+        barrierReached.await();
+
+        assertEquals(11, completedAtBarrier.get());
+        underlyingExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void barrierWithoutActiveKeys() {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(underlyingExecutor);
+        AtomicInteger reached = new AtomicInteger(0);
+
+        runner.barrier(reached::incrementAndGet);
+
+        assertEquals(1, reached.get());
+        underlyingExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void barrierIsNotCancelled() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(underlyingExecutor);
+        CountDownLatch block = new CountDownLatch(1);
+        CountDownLatch barrierReached = new CountDownLatch(1);
+
+        runner.run("key", () -> {
+            try {
+                block.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        runner.barrier(barrierReached::countDown);
+        runner.run("key", doSomething);
+
+        assertEquals(1, runner.cancelPending("key").size());
+
+        block.countDown();
+        barrierReached.await();
+
+        underlyingExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void multiKeyTask() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(underlyingExecutor);
+        List<String> processed = Collections.synchronizedList(new LinkedList<>());
+        CountDownLatch blockA = new CountDownLatch(1);
+        CountDownLatch otherKey = new CountDownLatch(1);
+
+        runner.run("A", () -> {
+            try {
+                blockA.await();
+            } catch (InterruptedException ignored) {
+            }
+            processed.add("A");
+        });
+        runner.run(new HashSet<>(Arrays.asList("A", "B")), () -> processed.add("AB"));
+        runner.run("B", () -> processed.add("B"));
+        runner.run("C", () -> {
+            processed.add("C");
+            otherKey.countDown();
+        });
+
+        otherKey.await();
+        assertEquals(Collections.singletonList("C"), processed);
+
+        blockA.countDown();
+
+        assertTrue(runner.awaitQuiescence(Long.MAX_VALUE, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("C", "A", "AB", "B"), processed);
+        underlyingExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void multiKeyTasksUnderLoad() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<Integer> runner = new KeySequentialRunner<>(underlyingExecutor);
+        int keys = 5;
+        AtomicBoolean[] busy = new AtomicBoolean[keys];
+        for (int i = 0; i < keys; ++i) {
+            busy[i] = new AtomicBoolean(false);
+        }
+        AtomicInteger violations = new AtomicInteger(0);
+        AtomicInteger completed = new AtomicInteger(0);
+        List<Thread> submittingThreads = new LinkedList<>();
+
+        for (int t = 0; t < 4; ++t) {
+            final int seed = t;
+            submittingThreads.add(new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 500; ++i) {
+                    Set<Integer> taskKeys = new HashSet<>();
+                    int size = 1 + random.nextInt(3);
+                    while (taskKeys.size() < size) {
+                        taskKeys.add(random.nextInt(keys));
+                    }
+                    runner.run(taskKeys, () -> {
+                        for (int key : taskKeys) {
+                            if (!busy[key].compareAndSet(false, true)) {
+                                violations.incrementAndGet();
+                            }
+                        }
+                        for (int key : taskKeys) {
+                            busy[key].set(false);
+                        }
+                        completed.incrementAndGet();
+                    });
+                }
+            }));
+        }
+        submittingThreads.forEach(Thread::start);
+        for (Thread thread : submittingThreads) {
+            thread.join();
+        }
+
+        assertTrue(runner.awaitQuiescence(Long.MAX_VALUE, TimeUnit.SECONDS));
+        assertEquals(0, violations.get());
+        assertEquals(2000, completed.get());
+        underlyingExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void multiKeyTaskDuringShutdown() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(underlyingExecutor);
+        List<String> processed = Collections.synchronizedList(new LinkedList<>());
+        CountDownLatch block = new CountDownLatch(1);
+
+        runner.run("A", () -> {
+            try {
+                block.await();
+            } catch (InterruptedException ignored) {
+            }
+            processed.add("A");
+        });
+        runner.run(new HashSet<>(Arrays.asList("A", "B")), () -> processed.add("AB"));
+        runner.run("A", () -> processed.add("A"));
+
+        underlyingExecutor.shutdown();
+
+        try {
+            runner.run(new HashSet<>(Arrays.asList("C", "D")), doSomething);
+            fail("not rejected");
+        } catch (RejectedExecutionException e) {
+            assertTrue(true);
+        }
+
+        block.countDown();
+        underlyingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+
+        assertTrue(runner.awaitQuiescence(Long.MAX_VALUE, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("A", "AB", "A"), processed);
+    }
+
+    @Test(timeout = 5000)
+    public void groupConcurrencyLimit() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<Integer> runner = KeySequentialRunner.<Integer>builder(underlyingExecutor)
+                .groups(key -> key % 2, 2)
+                .build();
+        AtomicInteger running = new AtomicInteger(0);
+        AtomicInteger maxRunning = new AtomicInteger(0);
+        CountDownLatch block = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch otherGroup = new CountDownLatch(1);
+
+        for (int key = 0; key < 12; key += 2) {
+            runner.run(key, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                started.countDown();
+                try {
+                    block.await();
+                } catch (InterruptedException ignored) {
+                }
+                running.decrementAndGet();
+            });
+        }
+        runner.run(1, otherGroup::countDown);
+
+        otherGroup.await();
+        started.await();
+        assertEquals(2, running.get());
+
+        block.countDown();
+
+        assertTrue(runner.awaitQuiescence(Long.MAX_VALUE, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+        underlyingExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void groupsUnderLoad() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<Integer> runner = KeySequentialRunner.<Integer>builder(underlyingExecutor)
+                .groups(key -> key % 3, 2)
+                .build();
+        List<Integer> processed = Collections.synchronizedList(new LinkedList<>());
+
+        for (int i = 0; i < 1000; ++i) {
+            final int toProcess = i;
+            runner.run(i % 10, () -> processed.add(toProcess));
+        }
+
+        assertTrue(runner.awaitQuiescence(Long.MAX_VALUE, TimeUnit.SECONDS));
+        underlyingExecutor.shutdownNow();
+
+        int[] previous = new int[10];
+        Arrays.fill(previous, -1);
+        for (int p : processed) {
+            assertTrue(previous[p % 10] < p);
+            previous[p % 10] = p;
+        }
+        assertEquals(1000, processed.size());
+    }
+
+    @Test(timeout = 5000)
+    public void rateLimit() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(2);
+        KeySequentialRunner<String> runner = KeySequentialRunner.<String>builder(underlyingExecutor)
+                .rateLimit(5, 100, TimeUnit.MILLISECONDS)
+                .build();
+        List<Integer> processed = Collections.synchronizedList(new LinkedList<>());
+        CountDownLatch otherKey = new CountDownLatch(1);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 15; ++i) {
+            final int toProcess = i;
+            runner.run("key", () -> processed.add(toProcess));
+        }
+        runner.run("other key", otherKey::countDown);
+
+        otherKey.await();
+        assertTrue(processed.size() < 15);
+
+        assertTrue(runner.awaitQuiescence(Long.MAX_VALUE, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - start;
+
+        // the first 5 tasks are the burst, the remaining ones are spaced by 20ms
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(200));
+        for (int i = 0; i < 15; ++i) {
+            assertEquals(i, processed.get(i).intValue());
+        }
+
+        // an idle key does not get a new burst until its bucket refills
+        runner.run("key", doSomething);
+        runner.run("key", doSomething);
+        long restart = System.nanoTime();
+        assertTrue(runner.awaitQuiescence(Long.MAX_VALUE, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - restart >= TimeUnit.MILLISECONDS.toNanos(20));
+        underlyingExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void retryWithBackoff() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        LinkedBlockingQueue<String> deadLetters = new LinkedBlockingQueue<>();
+        KeySequentialRunner<String> runner = KeySequentialRunner.<String>builder(underlyingExecutor)
+                .failurePolicy(FailurePolicy.retry(
+                        2,
+                        10,
+                        20,
+                        TimeUnit.MILLISECONDS,
+                        FailurePolicy.deadLetter((key, task, cause) -> deadLetters.offer(key + ":" + cause.getMessage()))
+                ))
+                .build();
+        List<String> processed = Collections.synchronizedList(new LinkedList<>());
+        AtomicInteger attempts = new AtomicInteger(0);
+        long start = System.nanoTime();
+
+        runner.run("key", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new RuntimeException("attempt " + attempts.get());
+            }
+            processed.add("retried");
+        });
+        runner.run("key", () -> processed.add("next"));
+        runner.run("other key", () -> {
+            throw new RuntimeException("always");
+        });
+
+        assertEquals("other key:always", deadLetters.take());
+        assertTrue(runner.awaitQuiescence(Long.MAX_VALUE, TimeUnit.SECONDS));
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+        assertEquals(3, attempts.get());
+        assertEquals(Arrays.asList("retried", "next"), processed);
+        assertTrue(deadLetters.isEmpty());
+        underlyingExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void pauseOnFailure() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        LinkedBlockingQueue<Throwable> handledExceptions = new LinkedBlockingQueue<>();
+        KeySequentialRunner<String> runner = KeySequentialRunner.<String>builder(underlyingExecutor)
+                .exceptionHandler(new TaskExceptionHandler<String>() {
+                    @Override
+                    public void onException(String key, Throwable cause) {
+                        handledExceptions.offer(cause);
+                    }
+                })
+                .failurePolicy(FailurePolicy.pause())
+                .build();
+        List<String> processed = Collections.synchronizedList(new LinkedList<>());
+        AtomicInteger attempts = new AtomicInteger(0);
+
+        runner.run("key", () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new RuntimeException("failed");
+            }
+            processed.add("failed once");
+        });
+        runner.run("key", () -> processed.add("next"));
+
+        assertEquals("failed", handledExceptions.take().getMessage());
+        assertTrue(runner.isPaused("key"));
+        assertFalse(runner.awaitQuiescence(10, TimeUnit.MILLISECONDS));
+        assertTrue(processed.isEmpty());
+
+        assertTrue(runner.resume("key"));
+        assertFalse(runner.resume("key"));
+
+        assertTrue(runner.awaitQuiescence(Long.MAX_VALUE, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("failed once", "next"), processed);
+        underlyingExecutor.shutdownNow();
+    }
+
     private Thread submittingThread(int key,
                                     int taskId,
                                     List<Integer> submittedTasks,
@@ -307,4 +805,156 @@ public class KeySequentialRunnerTest {
             }
         });
     }
+
+    @Test(timeout = 5000)
+    public void suppressDuplicates() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<String> runner = KeySequentialRunner.<String>builder(underlyingExecutor)
+                .deduplicate(2, 1, TimeUnit.MINUTES)
+                .build();
+        List<String> processed = Collections.synchronizedList(new LinkedList<>());
+        CountDownLatch blocked = new CountDownLatch(1);
+
+        assertTrue(runner.run("key", "a", () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException ignored) {
+            }
+            processed.add("a");
+        }));
+        Runnable b = () -> processed.add("b");
+        assertTrue(runner.run("key", "b", b));
+        assertFalse(runner.run("key", "a", () -> processed.add("a duplicate"))); // running
+        assertFalse(runner.run("key", "b", () -> processed.add("b duplicate"))); // pending
+        assertEquals(Collections.emptyList(), runner.cancelIf("key", task -> task != b));
+        assertEquals(Collections.singletonList(b), runner.cancelPending("key")); // the task as submitted
+        assertTrue(runner.run("key", "b", () -> processed.add("b"))); // cancelled, not a duplicate
+        blocked.countDown();
+        assertTrue(runner.drain("key", 5, TimeUnit.SECONDS));
+
+        assertFalse(runner.run("key", "a", () -> processed.add("a duplicate"))); // recently completed
+        assertTrue(runner.run("key", "c", () -> processed.add("c")));
+        assertTrue(runner.drain("key", 5, TimeUnit.SECONDS));
+        assertTrue(runner.run("key", "a", () -> processed.add("a"))); // evicted from the window
+        assertTrue(runner.drain("key", 5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList("a", "b", "c", "a"), processed);
+        underlyingExecutor.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void retainWindowAfterEachRetirement() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<String> runner = KeySequentialRunner.<String>builder(underlyingExecutor)
+                .deduplicate(4, 500, TimeUnit.MILLISECONDS)
+                .build();
+
+        assertTrue(runner.run("key", "a", () -> {
+        }));
+        assertTrue(runner.drain("key", 5, TimeUnit.SECONDS));
+        Thread.sleep(300);
+        assertTrue(runner.run("key", "b", () -> {
+        })); // reactivates the key with the retained window
+        assertTrue(runner.drain("key", 5, TimeUnit.SECONDS));
+        Thread.sleep(350); // the first retention has passed, the second one has not
+
+        assertFalse(runner.run("key", "a", () -> {
+        }));
+        underlyingExecutor.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void deadLetterSubmittedTask() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        LinkedBlockingQueue<Runnable> deadLetters = new LinkedBlockingQueue<>();
+        KeySequentialRunner<String> runner = KeySequentialRunner.<String>builder(underlyingExecutor)
+                .deduplicate(2, 1, TimeUnit.MINUTES)
+                .failurePolicy(FailurePolicy.deadLetter((key, task, cause) -> deadLetters.offer(task)))
+                .build();
+        Runnable failing = () -> {
+            throw new RuntimeException("always");
+        };
+
+        assertTrue(runner.run("key", "id", failing));
+
+        assertSame(failing, deadLetters.take());
+        underlyingExecutor.shutdown();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void deduplicationNotEnabled() {
+        new KeySequentialRunner<String>(Executors.newSingleThreadExecutor()).run("key", "id", () -> {
+        });
+    }
+
+    @Test(timeout = 5000)
+    public void forkContinuationsInForkJoinPool() throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        KeySequentialRunner<Integer> runner = new KeySequentialRunner<>(pool);
+        List<Integer> processed = Collections.synchronizedList(new LinkedList<>());
+        AtomicInteger external = new AtomicInteger(0);
+        CountDownLatch blocked = new CountDownLatch(1);
+
+        runner.run(1, () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        for (int i = 0; i < 100; ++i) {
+            final int toProcess = i;
+            runner.run(1, () -> {
+                // a forked continuation is not a submission from outside the pool
+                if (pool.getQueuedSubmissionCount() > 0) {
+                    external.incrementAndGet();
+                }
+                processed.add(toProcess);
+            });
+        }
+        blocked.countDown();
+
+        assertTrue(runner.drain(1, 5, TimeUnit.SECONDS));
+        assertEquals(0, external.get());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(i, processed.get(i).intValue());
+        }
+        pool.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void parkKeysOverConcurrencyLimit() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(8);
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 2, 2);
+        KeySequentialRunner<Integer> runner = KeySequentialRunner.<Integer>builder(underlyingExecutor)
+                .concurrencyLimit(limit)
+                .build();
+        AtomicInteger running = new AtomicInteger(0);
+        AtomicInteger maxRunning = new AtomicInteger(0);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch block = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(100);
+
+        for (int i = 0; i < 100; ++i) {
+            runner.run(i % 10, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                started.countDown();
+                try {
+                    block.await();
+                } catch (InterruptedException ignored) {
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        assertEquals(2, limit.inFlight());
+        assertEquals(8, limit.parked());
+        started.await();
+        block.countDown();
+        done.await();
+
+        assertEquals(2, maxRunning.get());
+        assertTrue(runner.awaitQuiescence(1, TimeUnit.SECONDS));
+        assertEquals(0, limit.parked());
+        underlyingExecutor.shutdown();
+    }
 }
@@ -0,0 +1,113 @@
+package com.jano7.executor;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class KeySequentialScheduledRunnerTest {
+
+    @Test(timeout = 5000)
+    public void delayedTaskJoinsTheKeySequence() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(underlyingExecutor);
+        KeySequentialScheduledRunner<String> scheduledRunner = new KeySequentialScheduledRunner<>(runner);
+        List<String> processed = Collections.synchronizedList(new LinkedList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        CountDownLatch block = new CountDownLatch(1);
+        long start = System.nanoTime();
+
+        KeySequentialScheduledRunner<String>.ScheduledTask retry = scheduledRunner.schedule("key", () -> {
+            processed.add("retry");
+            done.countDown();
+        }, 50, TimeUnit.MILLISECONDS);
+        scheduledRunner.run("key", () -> processed.add("first"));
+        scheduledRunner.run("key", () -> {
+            try {
+                block.await();
+            } catch (InterruptedException ignored) {
+            }
+            processed.add("blocking");
+        });
+
+        Thread.sleep(100);
+        assertFalse(retry.isDone());
+        block.countDown();
+        done.await();
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(Arrays.asList("first", "blocking", "retry"), processed);
+        assertTrue(retry.isDone());
+        assertFalse(retry.cancel());
+        underlyingExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void cancel() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(underlyingExecutor);
+        KeySequentialScheduledRunner<String> scheduledRunner = new KeySequentialScheduledRunner<>(runner);
+        AtomicInteger executed = new AtomicInteger(0);
+        CountDownLatch block = new CountDownLatch(1);
+
+        KeySequentialScheduledRunner<String>.ScheduledTask beforeExpiry =
+                scheduledRunner.schedule("key", executed::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+        assertTrue(beforeExpiry.cancel());
+        assertFalse(beforeExpiry.cancel());
+
+        scheduledRunner.run("key", () -> {
+            try {
+                block.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        KeySequentialScheduledRunner<String>.ScheduledTask enqueued =
+                scheduledRunner.schedule("key", executed::incrementAndGet, 0, TimeUnit.MILLISECONDS);
+        Thread.sleep(50);
+        assertTrue(enqueued.cancel());
+
+        block.countDown();
+
+        Thread.sleep(50);
+        assertTrue(runner.awaitQuiescence(Long.MAX_VALUE, TimeUnit.SECONDS));
+        assertEquals(0, executed.get());
+        underlyingExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void fixedDelay() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<String> runner = new KeySequentialRunner<>(underlyingExecutor);
+        KeySequentialScheduledRunner<String> scheduledRunner = new KeySequentialScheduledRunner<>(runner);
+        AtomicInteger executed = new AtomicInteger(0);
+        CountDownLatch threeTimes = new CountDownLatch(3);
+
+        KeySequentialScheduledRunner<String>.ScheduledTask housekeeping = scheduledRunner.scheduleWithFixedDelay(
+                "key",
+                () -> {
+                    executed.incrementAndGet();
+                    threeTimes.countDown();
+                },
+                0,
+                10,
+                TimeUnit.MILLISECONDS
+        );
+
+        threeTimes.await();
+        assertTrue(housekeeping.cancel());
+        int executedWhenCancelled = executed.get();
+
+        Thread.sleep(50);
+        assertTrue(executed.get() <= executedWhenCancelled + 1);
+        underlyingExecutor.shutdownNow();
+    }
+}
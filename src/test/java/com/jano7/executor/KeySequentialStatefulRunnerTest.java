@@ -0,0 +1,100 @@
+package com.jano7.executor;
+
+import org.junit.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class KeySequentialStatefulRunnerTest {
+
+    @Test(timeout = 5000)
+    public void stateSurvivesEviction() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        ConcurrentHashMap<Integer, Integer> store = new ConcurrentHashMap<>();
+        AtomicInteger loads = new AtomicInteger(0);
+        KeySequentialStatefulRunner<Integer, Integer> runner = KeySequentialStatefulRunner.<Integer, Integer>builder(
+                underlyingExecutor,
+                key -> {
+                    loads.incrementAndGet();
+                    return store.getOrDefault(key, 0);
+                })
+                .writeBack(store::put)
+                .maxIdleKeys(3)
+                .expireAfterIdle(20, TimeUnit.MILLISECONDS)
+                .build();
+
+        for (int i = 0; i < 1000; ++i) {
+            runner.update(i % 10, count -> count + 1);
+        }
+
+        while (runner.size() > 0) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(10, store.size());
+        for (int count : store.values()) {
+            assertEquals(100, count);
+        }
+        assertTrue(loads.get() >= 10);
+        underlyingExecutor.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void stateIsLoadedOnce() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        AtomicInteger loads = new AtomicInteger(0);
+        KeySequentialStatefulRunner<String, StringBuilder> runner =
+                KeySequentialStatefulRunner.<String, StringBuilder>builder(underlyingExecutor,
+                key -> {
+                    loads.incrementAndGet();
+                    return new StringBuilder(key);
+                }).build();
+        CountDownLatch done = new CountDownLatch(1);
+
+        for (int i = 0; i < 5; ++i) {
+            final int toAppend = i;
+            runner.run("key", state -> state.append(toAppend));
+            Thread.sleep(1);
+        }
+        runner.run("key", state -> done.countDown());
+        done.await();
+
+        LinkedBlockingQueue<String> state = new LinkedBlockingQueue<>();
+        runner.run("key", builder -> state.offer(builder.toString()));
+        assertEquals("key01234", state.take());
+        assertEquals(1, loads.get());
+        assertEquals(1, runner.size());
+        underlyingExecutor.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void failedLoadIsRetried() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        AtomicInteger loads = new AtomicInteger(0);
+        LinkedBlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        KeySequentialStatefulRunner<String, String> runner = KeySequentialStatefulRunner.<String, String>builder(
+                underlyingExecutor,
+                key -> {
+                    if (loads.incrementAndGet() == 1) {
+                        throw new RuntimeException("unavailable");
+                    }
+                    return "state";
+                })
+                .exceptionHandler(new TaskExceptionHandler<String>() {
+                    @Override
+                    public void onException(String key, Throwable cause) {
+                        events.offer(cause.getMessage());
+                    }
+                })
+                .build();
+
+        runner.run("key", events::offer);
+        runner.run("key", events::offer);
+
+        assertEquals("unavailable", events.take());
+        assertEquals("state", events.take());
+        underlyingExecutor.shutdown();
+    }
+}
@@ -0,0 +1,113 @@
+package com.jano7.executor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class KeySequentialTest {
+
+    private static final class Event {
+
+        private final int key;
+        private final int sequence;
+
+        Event(int key, int sequence) {
+            this.key = key;
+            this.sequence = sequence;
+        }
+    }
+
+    private static void assertProcessedInOrder(Stream<Event> events, int keys, int total, int parallelism) {
+        Map<Integer, List<Integer>> processed = new HashMap<>();
+        Map<Integer, AtomicInteger> active = new HashMap<>();
+        for (int key = 0; key < keys; ++key) {
+            processed.put(key, new ArrayList<>());
+            active.put(key, new AtomicInteger(0));
+        }
+        KeySequential.forEach(events, event -> event.key, event -> {
+            assertEquals(1, active.get(event.key).incrementAndGet());
+            processed.get(event.key).add(event.sequence);
+            active.get(event.key).decrementAndGet();
+        }, parallelism);
+
+        for (List<Integer> sequences : processed.values()) {
+            for (int i = 0; i < sequences.size(); ++i) {
+                assertEquals(i, sequences.get(i).intValue());
+            }
+        }
+        assertEquals(total, processed.values().stream().mapToInt(List::size).sum());
+    }
+
+    @Test(timeout = 20000)
+    public void processSizedInputInOrder() {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 200_000; ++i) {
+            events.add(new Event(i % 101, i / 101));
+        }
+        assertProcessedInOrder(events.stream(), 101, 200_000, 4);
+    }
+
+    @Test(timeout = 20000)
+    public void processUnsizedInputInOrder() {
+        assertProcessedInOrder(
+                IntStream.iterate(0, i -> i + 1).limit(100_000).mapToObj(i -> new Event(i % 7, i / 7)),
+                7,
+                100_000,
+                3
+        );
+    }
+
+    @Test(timeout = 20000)
+    public void processUnsplittableInputInOrder() {
+        AtomicInteger next = new AtomicInteger(0);
+        Spliterator<Event> unsplittable = new Spliterators.AbstractSpliterator<Event>(
+                Long.MAX_VALUE, Spliterator.ORDERED) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Event> action) {
+                int i = next.getAndIncrement();
+                if (i < 50_000) {
+                    action.accept(new Event(i % 13, i / 13));
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public Spliterator<Event> trySplit() {
+                return null;
+            }
+        };
+        Map<Integer, List<Integer>> processed = new HashMap<>();
+        for (int key = 0; key < 13; ++key) {
+            processed.put(key, new ArrayList<>());
+        }
+        KeySequential.forEach(
+                unsplittable, event -> event.key, event -> processed.get(event.key).add(event.sequence), 2);
+        for (List<Integer> sequences : processed.values()) {
+            for (int i = 0; i < sequences.size(); ++i) {
+                assertEquals(i, sequences.get(i).intValue());
+            }
+        }
+        assertEquals(50_000, processed.values().stream().mapToInt(List::size).sum());
+    }
+
+    @Test(timeout = 5000, expected = IllegalStateException.class)
+    public void propagateException() {
+        KeySequential.forEach(IntStream.range(0, 100_000).boxed(), i -> i % 10, i -> {
+            if (i == 50_000) {
+                throw new IllegalStateException();
+            }
+        }, 2);
+    }
+}
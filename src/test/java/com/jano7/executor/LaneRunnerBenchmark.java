@@ -0,0 +1,88 @@
+/*
+MIT License
+
+Copyright (c) 2020 Jan Gaspar
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.jano7.executor;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+
+// not a unit test, run the main method with the test classpath
+public class LaneRunnerBenchmark {
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int TASKS = 2_000_000;
+    private static final int ROUNDS = 5;
+
+    private interface Submitter {
+
+        void run(int key, Runnable task);
+    }
+
+    private static int[] keys(IntUnaryOperator keyOf) {
+        int[] keys = new int[TASKS];
+        for (int i = 0; i < TASKS; ++i) {
+            keys[i] = keyOf.applyAsInt(i);
+        }
+        return keys;
+    }
+
+    private static double measure(Submitter submitter, int[] keys) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(TASKS);
+        Runnable task = done::countDown;
+        long start = System.nanoTime();
+        for (int key : keys) {
+            submitter.run(key, task);
+        }
+        done.await();
+        return TASKS / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static void compare(String workload, int[] keys) throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(THREADS);
+        KeySequentialRunner<Integer> runner = new KeySequentialRunner<>(underlyingExecutor);
+        KeySequentialLaneRunner<Integer> laneRunner = new KeySequentialLaneRunner<>(THREADS);
+        for (int round = 0; round < ROUNDS; ++round) {
+            double keyRunner = measure(runner::run, keys);
+            double lanes = measure(laneRunner::run, keys);
+            System.out.printf(
+                    "%-10s round %d: KeySequentialRunner %,12.0f tasks/s, KeySequentialLaneRunner %,12.0f tasks/s%n",
+                    workload, round, keyRunner, lanes);
+        }
+        System.out.printf("%-10s lane migrations: %d%n", workload, laneRunner.migrations());
+        laneRunner.shutdown();
+        laneRunner.awaitTermination(1, TimeUnit.MINUTES);
+        underlyingExecutor.shutdown();
+        underlyingExecutor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Random random = new Random(42);
+        compare("uniform", keys(i -> random.nextInt(1_000_000)));
+        // every other task is for one of a few hot keys
+        compare("skewed", keys(i -> i % 2 == 0 ? random.nextInt(4) : random.nextInt(1_000_000)));
+    }
+}
@@ -0,0 +1,60 @@
+package com.jano7.executor;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.jano7.executor.BoundedStrategy.BLOCK;
+import static org.junit.Assert.*;
+
+public class ManagedBlockingTest {
+
+    @Test(timeout = 5000)
+    public void compensateBlockedWorker() throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        CountDownLatch released = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        pool.execute(ManagedBlocking.wrap(() -> {
+            try {
+                // the latch is counted down by a task which needs another worker
+                released.await();
+            } catch (InterruptedException ignored) {
+            }
+            done.countDown();
+        }));
+        pool.execute(released::countDown);
+
+        done.await();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 5000)
+    public void blockingBoundedExecutorInPool() throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        BoundedExecutor boundedExecutor = new BoundedExecutor(1, BLOCK, pool);
+        LinkedBlockingQueue<String> executed = new LinkedBlockingQueue<>();
+
+        pool.execute(() -> {
+            boundedExecutor.execute(() -> executed.offer("first"));
+            // blocks until the first task, which needs a worker, has been executed
+            boundedExecutor.execute(() -> executed.offer("second"));
+        });
+
+        assertEquals("first", executed.take());
+        assertEquals("second", executed.take());
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void runOutsidePool() {
+        StringBuilder executed = new StringBuilder();
+        ManagedBlocking.run(() -> executed.append("executed"));
+        assertEquals("executed", executed.toString());
+    }
+}
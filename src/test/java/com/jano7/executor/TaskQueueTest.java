@@ -82,4 +82,23 @@ public class TaskQueueTest {
         assertArrayEquals(enqueued.toArray(), dequeued.toArray());
         assertNull(taskQueue.dequeue());
     }
+
+    @Test
+    public void removeIf() {
+        TaskQueue taskQueue = new TaskQueue();
+        for (int i = 0; i < 10; ++i) {
+            taskQueue.enqueue(new KeyRunnable<>(i, doSomething));
+        }
+
+        List<Runnable> removed = taskQueue.removeIf(task -> Integer.parseInt(task.toString()) % 2 == 0);
+
+        assertEquals(5, removed.size());
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(new KeyRunnable<>(i * 2, doSomething), removed.get(i));
+        }
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(new KeyRunnable<>(i * 2 + 1, doSomething), taskQueue.dequeue());
+        }
+        assertNull(taskQueue.dequeue());
+    }
 }
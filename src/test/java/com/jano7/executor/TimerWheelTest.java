@@ -0,0 +1,79 @@
+package com.jano7.executor;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.jano7.executor.TestUtil.doSomething;
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+
+    @Test(timeout = 5000)
+    public void expireInOrder() throws InterruptedException {
+        TimerWheel timer = new TimerWheel(1, TimeUnit.MILLISECONDS, 8);
+        List<Integer> expired = Collections.synchronizedList(new LinkedList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+
+        timer.schedule(() -> {
+            expired.add(3);
+            done.countDown();
+        }, 60, TimeUnit.MILLISECONDS);
+        timer.schedule(() -> expired.add(1), 5, TimeUnit.MILLISECONDS);
+        timer.schedule(() -> expired.add(2), 30, TimeUnit.MILLISECONDS);
+
+        done.await();
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(60));
+        assertEquals(1, expired.get(0).intValue());
+        assertEquals(2, expired.get(1).intValue());
+        assertEquals(3, expired.get(2).intValue());
+        timer.stop();
+    }
+
+    @Test(timeout = 5000)
+    public void cancel() throws InterruptedException {
+        TimerWheel timer = new TimerWheel(1, TimeUnit.MILLISECONDS, 16);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        TimerWheel.Timeout timeout = timer.schedule(cancelled::countDown, 10, TimeUnit.MILLISECONDS);
+        TimerWheel.Timeout other = timer.schedule(done::countDown, 20, TimeUnit.MILLISECONDS);
+
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+
+        done.await();
+
+        assertEquals(1, cancelled.getCount());
+        assertTrue(other.isExpired());
+        assertFalse(other.cancel());
+        timer.stop();
+    }
+
+    @Test(timeout = 5000)
+    public void manyTimeouts() throws InterruptedException {
+        TimerWheel timer = new TimerWheel(1, TimeUnit.MILLISECONDS, 64);
+        CountDownLatch done = new CountDownLatch(100000);
+
+        for (int i = 0; i < 100000; ++i) {
+            timer.schedule(done::countDown, i % 200, TimeUnit.MILLISECONDS);
+        }
+
+        done.await();
+        timer.stop();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectWhenStopped() {
+        TimerWheel timer = new TimerWheel(1, TimeUnit.MILLISECONDS, 8);
+        timer.stop();
+        timer.schedule(doSomething, 1, TimeUnit.MILLISECONDS);
+    }
+}
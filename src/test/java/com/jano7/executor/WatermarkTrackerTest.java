@@ -0,0 +1,133 @@
+package com.jano7.executor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WatermarkTrackerTest {
+
+    @Test
+    public void contiguousCompletion() {
+        WatermarkTracker<String> tracker = new WatermarkTracker<>(64);
+        List<Runnable> tracked = new ArrayList<>();
+        for (long offset = 10; offset < 1000; offset += 2) {
+            tracked.add(tracker.track("p", offset, () -> {
+            }));
+        }
+
+        assertEquals(9, tracker.watermark("p"));
+        assertEquals(-1, tracker.watermark("unknown"));
+
+        Collections.reverse(tracked);
+        for (Runnable task : tracked.subList(0, tracked.size() - 1)) {
+            ((WatermarkTracker.TrackedTask) task).complete();
+        }
+        assertEquals(9, tracker.watermark("p"));
+
+        ((WatermarkTracker.TrackedTask) tracked.get(tracked.size() - 1)).complete();
+        assertEquals(998, tracker.watermark("p"));
+    }
+
+    @Test(timeout = 5000)
+    public void largeGaps() {
+        WatermarkTracker<String> tracker = new WatermarkTracker<>(64);
+        Runnable first = tracker.track("p", 0, () -> {
+        });
+        Runnable second = tracker.track("p", 2_000_000_000L, () -> {
+        });
+        Runnable third = tracker.track("p", 2_000_000_100L, () -> {
+        });
+        Runnable fourth = tracker.track("p", 2_000_000_110L, () -> {
+        });
+
+        ((WatermarkTracker.TrackedTask) second).complete();
+        ((WatermarkTracker.TrackedTask) fourth).complete();
+        assertEquals(-1, tracker.watermark("p"));
+        ((WatermarkTracker.TrackedTask) first).complete();
+        assertEquals(2_000_000_099L, tracker.watermark("p"));
+        ((WatermarkTracker.TrackedTask) third).complete();
+        assertEquals(2_000_000_110L, tracker.watermark("p"));
+
+        Runnable fifth = tracker.track("p", Long.MAX_VALUE - 1, () -> {
+        });
+        assertEquals(Long.MAX_VALUE - 2, tracker.watermark("p")); // the skipped offsets are not waited for
+        ((WatermarkTracker.TrackedTask) fifth).complete();
+        assertEquals(Long.MAX_VALUE - 1, tracker.watermark("p"));
+    }
+
+    @Test(timeout = 5000)
+    public void rejectedTaskCompletes() {
+        ExecutorService rejecting = Executors.newSingleThreadExecutor();
+        rejecting.shutdown();
+        WatermarkTracker<String> tracker = new WatermarkTracker<>();
+
+        try {
+            new KeySequentialRunner<Integer>(rejecting).run(1, tracker.track("p", 0, () -> {
+            }));
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        new KeySequentialRunner<Integer>(Runnable::run).run(2, tracker.track("p", 1, () -> {
+        }));
+
+        assertEquals(1, tracker.watermark("p"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void offsetsMustIncrease() {
+        WatermarkTracker<String> tracker = new WatermarkTracker<>();
+        tracker.track("p", 5, () -> {
+        });
+        tracker.track("p", 5, () -> {
+        });
+    }
+
+    @Test(timeout = 5000)
+    public void trackRunnerTasks() throws InterruptedException {
+        ExecutorService underlyingExecutor = Executors.newFixedThreadPool(10);
+        KeySequentialRunner<Integer> runner = new KeySequentialRunner<>(
+                underlyingExecutor,
+                new TaskExceptionHandler<Integer>() {
+                    @Override
+                    public void onException(Integer key, Throwable cause) {
+                    }
+                }
+        );
+        WatermarkTracker<Integer> tracker = new WatermarkTracker<>();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch others = new CountDownLatch(99);
+
+        runner.run(0, tracker.track(0, 0, () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException ignored) {
+            }
+        }));
+        for (int offset = 1; offset < 100; ++offset) {
+            final boolean fail = offset % 10 == 0;
+            runner.run(offset % 7 + 1, tracker.track(0, offset, () -> {
+                if (fail) {
+                    throw new RuntimeException("failed");
+                }
+            }));
+            runner.run(offset % 7 + 1, others::countDown);
+        }
+
+        others.await();
+        assertEquals(-1, tracker.watermark(0));
+        blocked.countDown();
+        assertTrue(runner.awaitQuiescence(5, TimeUnit.SECONDS));
+        assertEquals(99, tracker.watermark(0));
+        underlyingExecutor.shutdown();
+    }
+}